@@ -5,28 +5,75 @@ import de.saar.minecraft.shared.TextMessage;
 import de.saar.minecraft.shared.ProtectBlockMessage;
 import de.saar.minecraft.shared.WorldSelectMessage;
 import io.grpc.stub.StreamObserver;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 public abstract class AbstractArchitect implements Architect {
-    protected StreamObserver<TextMessage> messageChannel;
-    protected StreamObserver<ProtectBlockMessage> controlChannel;
+    // OutboundQueues, which any thread can send to
+    protected volatile StreamObserver<TextMessage> messageChannel;
+    protected volatile StreamObserver<ProtectBlockMessage> controlChannel;
     protected int gameId;
     private static Logger logger = LogManager.getLogger(AbstractArchitect.class);
     protected boolean playerHasLeft = false;
+    // the background tasks; the handlers run on a separate serial queue of the
+    // ArchitectServer, so tasks may run concurrently with them
+    private final ArchitectExecutor.Serial tasks = ArchitectExecutor.shared().newSerial();
+    // the scenario of the world acquired by loadWorld, released by shutdown
+    private String worldScenario = null;
+
+    /**
+     * Runs a longer computation in the background, so that the handler that
+     * calls this can return quickly.  The tasks of one architect run one at a
+     * time and in the order in which they were submitted, but concurrently with
+     * the handlers; tasks that have not started when the game ends are cancelled.
+     */
+    protected CompletableFuture<Void> submit(Runnable task) {
+        return tasks.submit(task);
+    }
+
+    /**
+     * Like {@link #submit(Runnable)}, but only submits the task after the delay.
+     */
+    protected ScheduledFuture<?> schedule(long delay, TimeUnit unit, Runnable task) {
+        return tasks.schedule(delay, unit, task);
+    }
+
+    /**
+     * Returns the world of the scenario, usually called in initialize.  All
+     * architects of a scenario share the same world, which is read only once.
+     */
+    protected ScenarioWorld loadWorld(String scenario) {
+        ScenarioWorld world = ScenarioWorldCache.shared().acquire(scenario);
+        if (worldScenario != null) {
+            ScenarioWorldCache.shared().release(worldScenario);
+        }
+        worldScenario = scenario;
+        return world;
+    }
 
     @Override
     public void shutdown() {
-        if (messageChannel != null) {
-            messageChannel.onCompleted();
-            messageChannel = null;
+        tasks.close();
+        if (worldScenario != null) {
+            ScenarioWorldCache.shared().release(worldScenario);
+            worldScenario = null;
         }
-        if (controlChannel != null) {
-            controlChannel.onCompleted();
-            controlChannel = null;
+        var messages = messageChannel;
+        messageChannel = null;
+        if (messages != null) {
+            messages.onCompleted();
+        }
+        var control = controlChannel;
+        controlChannel = null;
+        if (control != null) {
+            control.onCompleted();
         }
     }
 
+    @Override
     public void setGameId(int gameId) {
         this.gameId = gameId;
     }
@@ -34,7 +81,11 @@ public abstract class AbstractArchitect implements Architect {
     @Override
     public void setMessageChannel(StreamObserver<TextMessage> messageChannel) {
         logger.debug("setting message channel");
-        this.messageChannel = messageChannel;
+        this.messageChannel = OutboundQueue.wrap(messageChannel, TextMessage::getForLogging);
+        if (this.messageChannel instanceof OutboundQueue) {
+            ((OutboundQueue<TextMessage>) this.messageChannel)
+                .setOnClosed(() -> submit(this::onMessageChannelClosed));
+        }
     }
 
 
@@ -59,19 +110,17 @@ public abstract class AbstractArchitect implements Architect {
             .setText(text)
             .setNewGameState(newGameState)
             .build();
-        synchronized (this) {
-            try {
-                messageChannel.onNext(message);
-            } catch (NullPointerException e) {
-                onMessageChannelClosed();
-            }
-        }
+        send(messageChannel, message);
     }
 
     @Override
     public void setControlChannel(StreamObserver<ProtectBlockMessage> controlChannel) {
         System.err.println("setting control channel");
-        this.controlChannel = controlChannel;
+        this.controlChannel = OutboundQueue.wrap(controlChannel, message -> false);
+        if (this.controlChannel instanceof OutboundQueue) {
+            ((OutboundQueue<ProtectBlockMessage>) this.controlChannel)
+                .setOnClosed(() -> submit(this::onControlChannelClosed));
+        }
     }
 
     /**
@@ -85,12 +134,11 @@ public abstract class AbstractArchitect implements Architect {
                 .setZ(z)
                 .setType(type)
                 .build();
-        synchronized (this) {
-            try {
-                controlChannel.onNext(message);
-            } catch (NullPointerException e) {
-                onControlChannelClosed();
-            }
+        var channel = controlChannel;
+        if (channel == null) {
+            onControlChannelClosed();
+        } else {
+            channel.onNext(message);
         }
     }
 
@@ -105,23 +153,25 @@ public abstract class AbstractArchitect implements Architect {
             .setForLogging(true)
             .setLogType(logType)
             .build();
-        synchronized (this) {
-            try {
-                messageChannel.onNext(message);
-            } catch (NullPointerException e) {
-                onMessageChannelClosed();
-            }
+        send(messageChannel, message);
+    }
+
+    private void send(StreamObserver<TextMessage> channel, TextMessage message) {
+        if (channel == null) {
+            onMessageChannelClosed();
+        } else {
+            channel.onNext(message);
         }
     }
     
-    private void onMessageChannelClosed() {
+    private synchronized void onMessageChannelClosed() {
         if (!playerHasLeft) {
             playerHasLeft = true;
             playerLeft();
         }
     }
 
-    private void onControlChannelClosed() {
+    private synchronized void onControlChannelClosed() {
         if (!playerHasLeft) {
             playerHasLeft = true;
             playerLeft();
@@ -28,6 +28,16 @@ public interface Architect {
 
     public void playerReady();
 
+    /**
+     * Sets the ID of the game.  The ArchitectServer calls this when it hands
+     * an architect that was initialized in advance to a new game, which is
+     * then different from the game ID in the request given to
+     * {@link #initialize(WorldSelectMessage)}.  Only {@link AbstractArchitect}
+     * implements it, and only its subclasses are initialized in advance.
+     */
+    public default void setGameId(int gameId) {
+    }
+
     /**
      * Called when a game is finished.  Should de-initialize everything
      * and close the messageChannel.
@@ -41,8 +51,8 @@ public interface Architect {
     /**
      * Handles the regular status updates from the Minecraft server.
      * This method is called frequently, and should thus return quickly.
-     * Spawn off a separate thread if you need to perform an expensive
-     * computation, and then send any strings you like to the
+     * Use {@link AbstractArchitect#submit(Runnable)} if you need to perform
+     * an expensive computation, and then send any strings you like to the
      * responseObserver.
      */
     public void handleStatusInformation(StatusMessage request);
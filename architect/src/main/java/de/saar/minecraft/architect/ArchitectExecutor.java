@@ -0,0 +1,234 @@
+package de.saar.minecraft.architect;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the background work of architects on a fixed number of threads, which are
+ * shared by all architects in the JVM.  Each architect gets a {@link Serial}
+ * queue, so that the work of one game runs one task at a time and in the order
+ * it was submitted, while different games run in parallel.
+ *
+ * <p>The number of threads is taken from the system property architect.threads
+ * and defaults to the number of processors.</p>
+ */
+public class ArchitectExecutor {
+    private static final Logger logger = LogManager.getLogger(ArchitectExecutor.class);
+    private static final ArchitectExecutor shared = new ArchitectExecutor(
+        Integer.getInteger("architect.threads", Runtime.getRuntime().availableProcessors()));
+
+    private final ScheduledThreadPoolExecutor pool;
+    // tasks that have been submitted and not started yet, over all games
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+
+    /**
+     * Creates an executor with the given number of daemon threads.
+     */
+    public ArchitectExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        pool = new ScheduledThreadPoolExecutor(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "architect-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // cancelled delayed tasks of finished games should not stay in the queue
+        pool.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns the executor that is used by {@link AbstractArchitect}.
+     */
+    public static ArchitectExecutor shared() {
+        return shared;
+    }
+
+    /**
+     * Creates a new serial queue, usually one per architect.  This is cheap;
+     * the queue holds no resources until a task is submitted.
+     */
+    public Serial newSerial() {
+        return new Serial();
+    }
+
+    /**
+     * Returns the number of tasks that wait for a thread.
+     */
+    public int getQueuedTasks() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of tasks that are running right now.
+     */
+    public int getActiveTasks() {
+        return active.get();
+    }
+
+    /**
+     * Returns the number of delayed tasks whose delay has not elapsed yet.
+     */
+    public int getScheduledTasks() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * Stops all threads.  Only needed for executors other than the shared one.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * A queue of tasks that run one after the other on the threads of the
+     * ArchitectExecutor.  After {@link #close()}, pending tasks are cancelled and
+     * new tasks are ignored.
+     */
+    public class Serial {
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        private final Set<ScheduledFuture<?>> delayed = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean running = new AtomicBoolean();
+        private volatile boolean closed = false;
+
+        private Serial() {
+        }
+
+        /**
+         * Runs the task after all tasks that were submitted before it.  The future
+         * completes when the task has run, and is cancelled if the queue is closed
+         * before that.
+         */
+        public CompletableFuture<Void> submit(Runnable task) {
+            var future = new Task(task);
+            if (closed) {
+                future.cancel(false);
+                return future;
+            }
+            tasks.add(future);
+            queued.incrementAndGet();
+            // close() may have emptied the queue before the task was added
+            if (closed && tasks.remove(future)) {
+                queued.decrementAndGet();
+                future.cancel(false);
+                return future;
+            }
+            if (running.compareAndSet(false, true)) {
+                pool.execute(this::runNext);
+            }
+            return future;
+        }
+
+        /**
+         * Submits the task once the delay has elapsed.  It then runs after the
+         * tasks that were submitted before that point.
+         */
+        public ScheduledFuture<?> schedule(long delay, TimeUnit unit, Runnable task) {
+            var holder = new ScheduledFuture<?>[1];
+            synchronized (holder) {
+                holder[0] = pool.schedule(() -> {
+                    synchronized (holder) {
+                        delayed.remove(holder[0]);
+                    }
+                    submit(task);
+                }, delay, unit);
+                delayed.add(holder[0]);
+            }
+            if (closed) {
+                holder[0].cancel(false);
+            }
+            return holder[0];
+        }
+
+        /**
+         * Returns the number of tasks of this queue that have not started yet.
+         */
+        public int getQueuedTasks() {
+            return tasks.size();
+        }
+
+        /**
+         * Cancels all pending and delayed tasks.  A task that is running is not
+         * interrupted.
+         */
+        public void close() {
+            closed = true;
+            for (var future : delayed) {
+                future.cancel(false);
+            }
+            delayed.clear();
+            Task task;
+            while ((task = tasks.poll()) != null) {
+                queued.decrementAndGet();
+                task.cancel(false);
+            }
+        }
+
+        // runs one task per turn, so that busy games do not starve the others
+        private void runNext() {
+            try {
+                Task task = tasks.poll();
+                if (task != null) {
+                    queued.decrementAndGet();
+                    if (closed) {
+                        task.cancel(false);
+                    } else {
+                        active.incrementAndGet();
+                        try {
+                            task.run();
+                        } finally {
+                            active.decrementAndGet();
+                        }
+                    }
+                }
+            } finally {
+                // whatever the task did, the queue must not stay marked as running
+                runLater();
+            }
+        }
+
+        private void runLater() {
+            if (!tasks.isEmpty()) {
+                pool.execute(this::runNext);
+                return;
+            }
+            running.set(false);
+            // a task may have been added after the check above
+            if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+                pool.execute(this::runNext);
+            }
+        }
+    }
+
+    private static class Task extends CompletableFuture<Void> {
+        private final Runnable work;
+
+        Task(Runnable work) {
+            this.work = work;
+        }
+
+        void run() {
+            if (isDone()) {
+                return;
+            }
+            try {
+                work.run();
+                complete(null);
+            } catch (Throwable e) {
+                // also errors, e.g. from an assertion in an architect; the
+                // thread goes on with the tasks of other games
+                logger.error("architect task failed", e);
+                completeExceptionally(e);
+            }
+        }
+    }
+}
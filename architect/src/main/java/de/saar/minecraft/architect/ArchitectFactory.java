@@ -7,4 +7,33 @@ package de.saar.minecraft.architect;
 @FunctionalInterface
 public interface ArchitectFactory {
     public Architect build();
+
+    /**
+     * Returns a factory for the class with the given name, which is either an
+     * ArchitectFactory or an Architect; both need a public constructor without
+     * arguments.
+     * @throws IllegalArgumentException if the class does not exist or is neither
+     */
+    public static ArchitectFactory forClassName(String className) {
+        try {
+            Class<?> cls = Class.forName(className);
+            var constructor = cls.getConstructor();
+            if (ArchitectFactory.class.isAssignableFrom(cls)) {
+                return (ArchitectFactory) constructor.newInstance();
+            }
+            if (Architect.class.isAssignableFrom(cls)) {
+                return () -> {
+                    try {
+                        return (Architect) constructor.newInstance();
+                    } catch (ReflectiveOperationException e) {
+                        throw new IllegalStateException("Could not create " + className, e);
+                    }
+                };
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Could not load architect " + className, e);
+        }
+        throw new IllegalArgumentException(className
+            + " is neither an Architect nor an ArchitectFactory");
+    }
 }
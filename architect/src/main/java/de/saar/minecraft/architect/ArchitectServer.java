@@ -3,13 +3,32 @@ package de.saar.minecraft.architect;
 import com.google.rpc.Code;
 import com.google.rpc.Status;
 import de.saar.minecraft.shared.*;
+import de.saar.minecraft.util.GameEvents;
+import de.saar.minecraft.util.LatencyRecorder;
+import de.saar.minecraft.util.Util;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress;
 import io.grpc.protobuf.StatusProto;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -24,9 +43,29 @@ import org.apache.logging.log4j.Logger;
 public class ArchitectServer {
     private static Logger logger = LogManager.getLogger(ArchitectServer.class);
     private Server server;
-    private Map<Integer, Architect> runningArchitects;
+    // the architects of the running games by game ID
+    private final Map<Integer, GameActor> runningArchitects = new ConcurrentHashMap<>();
     private ArchitectFactory factory;
     private int port;
+    // path of the Unix domain socket to listen on, or null to listen on the port
+    private String socketPath = null;
+    // name of the in-process server to run as, or null to listen on the network
+    private String inProcessName = null;
+    private EventLoopGroup epollGroup = null;
+    // load reported to the broker by GetLoad
+    private final LatencyRecorder latencies = new LatencyRecorder(1024);
+    private final AtomicInteger activeHandlers = new AtomicInteger();
+    // architects initialized in advance, or null
+    private WarmArchitectPool warmPool = null;
+    private int warmPoolSize = 0;
+    private int warmPoolThreads = 1;
+    private Collection<String> warmPoolScenarios = List.of();
+    // bounds of the streams to the broker
+    private int outboundCapacity = 1024;
+    private OutboundQueue.OverflowPolicy outboundPolicy =
+        OutboundQueue.OverflowPolicy.DropLoggingFirst;
+    // the answer to hello, which is the same for all architects of the factory
+    private volatile ArchitectInformation architectInformation = null;
 
     /**
      * Constructs an ArchitectServer which is configured to listen to a given port and
@@ -35,17 +74,76 @@ public class ArchitectServer {
     public ArchitectServer(int port, ArchitectFactory factory) {
         this.factory = factory;
         this.port = port;
-        runningArchitects = new HashMap<>();
+    }
+
+    /**
+     * Constructs an ArchitectServer which listens on the given address, which is
+     * either a port number, a Unix domain socket of the form unix:///path or an
+     * in-process server of the form inprocess:name, which can only be reached from
+     * the same JVM.  Domain sockets are only available on Linux.
+     */
+    public ArchitectServer(String address, ArchitectFactory factory) {
+        this.factory = factory;
+        socketPath = Util.domainSocketPath(address);
+        inProcessName = Util.inProcessName(address);
+        if (socketPath == null && inProcessName == null) {
+            port = Integer.parseInt(address);
+        }
+    }
+
+    /**
+     * Keeps the given number of initialized architects for each scenario, so that
+     * new games can start without waiting for {@link Architect#initialize}.  Only
+     * the given scenarios are pooled; they are prepared when the server starts.  The
+     * pool only works for subclasses of {@link AbstractArchitect}.  Call before
+     * {@link #start()}; a size of 0 (the default) turns the pool off.
+     */
+    public void setWarmPool(int perScenario, int threads, Collection<String> scenarios) {
+        warmPoolSize = perScenario;
+        warmPoolThreads = threads;
+        warmPoolScenarios = scenarios;
+    }
+
+    /**
+     * Sets how many messages each stream to the broker holds while the transport
+     * is not ready, and which messages are dropped if more are sent.  The default
+     * is 1024 messages, dropping messages for logging first.
+     */
+    public void setOutboundQueues(int capacity, OutboundQueue.OverflowPolicy policy) {
+        outboundCapacity = capacity;
+        outboundPolicy = policy;
     }
 
     /**
      * Actually starts the ArchitectServer.
      */
     public void start() throws IOException {
-        server = ServerBuilder.forPort(port)
-                .addService(new ArchitectImpl())
-                .build()
-                .start();
+        if (inProcessName != null) {
+            server = InProcessServerBuilder.forName(inProcessName)
+                    .addService(new ArchitectImpl())
+                    .build()
+                    .start();
+        } else if (socketPath == null) {
+            server = ServerBuilder.forPort(port)
+                    .addService(new ArchitectImpl())
+                    .build()
+                    .start();
+        } else {
+            if (!Epoll.isAvailable()) {
+                throw new IOException("Unix domain sockets need the epoll transport, which is "
+                    + "not available", Epoll.unavailabilityCause());
+            }
+            // a socket file left over from an earlier run would make bind fail
+            Files.deleteIfExists(Paths.get(socketPath));
+            epollGroup = new EpollEventLoopGroup();
+            server = NettyServerBuilder.forAddress(new DomainSocketAddress(socketPath))
+                    .channelType(EpollServerDomainSocketChannel.class)
+                    .bossEventLoopGroup(epollGroup)
+                    .workerEventLoopGroup(epollGroup)
+                    .addService(new ArchitectImpl())
+                    .build()
+                    .start();
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
@@ -54,9 +152,19 @@ public class ArchitectServer {
             }
         });
 
-        String info = factory.build().getArchitectInformation();
+        String info = architectInformation().getInfo();
+        if (warmPoolSize > 0) {
+            warmPool = new WarmArchitectPool(factory, warmPoolSize, warmPoolThreads,
+                warmPoolScenarios);
+        }
 
-        logger.info("Architect server running on port {}.", port);
+        if (inProcessName != null) {
+            logger.info("Architect server running in process as {}.", inProcessName);
+        } else if (socketPath == null) {
+            logger.info("Architect server running on port {}.", port);
+        } else {
+            logger.info("Architect server running on unix://{}.", socketPath);
+        }
         logger.info(info);
     }
 
@@ -67,6 +175,22 @@ public class ArchitectServer {
         if (server != null) {
             server.shutdown();
         }
+        if (warmPool != null) {
+            warmPool.shutdown();
+        }
+        if (epollGroup != null) {
+            epollGroup.shutdownGracefully();
+        }
+    }
+
+    private ArchitectInformation architectInformation() {
+        if (architectInformation == null) {
+            // no need to initialize the architect, it will disappear right away
+            architectInformation = ArchitectInformation.newBuilder()
+                .setInfo(factory.build().getArchitectInformation())
+                .build();
+        }
+        return architectInformation;
     }
 
     /**
@@ -88,15 +212,7 @@ public class ArchitectServer {
          */
         @Override
         public void hello(None request, StreamObserver<ArchitectInformation> responseObserver) {
-            Architect arch = factory.build();
-            // no need to initialize it, it will disappear right away
-
-            responseObserver.onNext(
-                ArchitectInformation
-                    .newBuilder()
-                    .setInfo(arch.getArchitectInformation())
-                    .build()
-            );
+            responseObserver.onNext(architectInformation());
             responseObserver.onCompleted();
         }
 
@@ -105,31 +221,35 @@ public class ArchitectServer {
          */
         @Override
         public void startGame(WorldSelectMessage request, StreamObserver<None> responseObserver) {
-            Architect arch = factory.build();
-            runningArchitects.put(request.getGameId(), arch);
+            Architect warm = warmPool == null ? null : warmPool.take(request);
+            Architect arch = warm != null ? warm : factory.build();
+            var game = new GameActor(request.getGameId(), arch);
+            runningArchitects.put(request.getGameId(), game);
 
             responseObserver.onNext(None.getDefaultInstance());
             responseObserver.onCompleted();
+            if (warm != null) {
+                logger.info("initialized architect taken from the pool for id {}: {}",
+                    request.getGameId(), arch);
+                return;
+            }
             // perfom expensive initialization after letting the broker return.
-            arch.initialize(request);
-            logger.info("architect initialized for id {}: {}", request.getGameId(), arch);
+            // Calls for the game that arrive in the meantime wait in its mailbox.
+            game.tell(() -> {
+                arch.initialize(request);
+                logger.info("architect initialized for id {}: {}", request.getGameId(), arch);
+            });
         }
 
         @Override
         public void playerReady(GameId request, StreamObserver<None> responseObserver) {
-            int id = request.getId();
-            var architect = runningArchitects.get(id);
-            if (architect != null) {
+            var game = findGame(request.getId(), responseObserver);
+            if (game != null) {
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
-                architect.playerReady();
+                game.tell(game.getArchitect()::playerReady);
             } else {
-                Status status = Status.newBuilder()
-                    .setCode(Code.INVALID_ARGUMENT.getNumber())
-                    .setMessage("No architect running for game ID " + request.getId())
-                    .build();
-                responseObserver.onError(StatusProto.toStatusRuntimeException(status));
-                logger.warn("could not find architect for message channel");
+                logger.warn("could not find architect for player ready");
             }
         }
 
@@ -137,67 +257,68 @@ public class ArchitectServer {
         public void getMessageChannel(GameId request,
             StreamObserver<TextMessage> responseObserver) {
             logger.info("architectServer getMessageChannel");
-            var architect = runningArchitects.get(request.getId());
-            if (architect == null) {
-                Status status = Status.newBuilder()
-                    .setCode(Code.INVALID_ARGUMENT.getNumber())
-                    .setMessage("No architect running for game ID " + request.getId())
-                    .build();
-                responseObserver.onError(StatusProto.toStatusRuntimeException(status));
+            var game = findGame(request.getId(), responseObserver);
+            if (game == null) {
                 logger.warn("could not find architect for message channel");
                 return;
             }
 
-            architect.setMessageChannel(responseObserver);
-            logger.info("set the message channel");
+            // must register for the ready signal before this method returns
+            var messages = new OutboundQueue<>(responseObserver, outboundCapacity,
+                outboundPolicy, TextMessage::getForLogging);
+            game.setMessages(messages);
+            game.tell(() -> {
+                game.getArchitect().setMessageChannel(messages);
+                logger.info("set the message channel");
+            });
         }
 
         @Override
         public void getControlChannel(GameId request,
                                       StreamObserver<ProtectBlockMessage> responseObserver) {
             logger.info("architectServer getControlChannel");
-            var architect = runningArchitects.get(request.getId());
-            if (architect == null) {
-                Status status = Status.newBuilder()
-                        .setCode(Code.INVALID_ARGUMENT.getNumber())
-                        .setMessage("No architect running for game ID " + request.getId())
-                        .build();
-                responseObserver.onError(StatusProto.toStatusRuntimeException(status));
+            var game = findGame(request.getId(), responseObserver);
+            if (game == null) {
                 logger.warn("could not find architect for control channel");
                 return;
             }
 
-            architect.setControlChannel(responseObserver);
-            logger.info("set the message channel");
+            var control = new OutboundQueue<>(responseObserver, outboundCapacity,
+                outboundPolicy, message -> false);
+            game.setControl(control);
+            game.tell(() -> {
+                game.getArchitect().setControlChannel(control);
+                logger.info("set the control channel");
+            });
         }
 
         /**
          * Marks the given game as finished and shuts down its corresponding
-         * architect instance.
+         * architect instance once it has handled the calls before.
          */
         @Override
         public void endGame(GameId request, StreamObserver<None> responseObserver) {
-            var architect = runningArchitects.get(request.getId());
-            if (architect != null) {
-                architect.shutdown();
-            } else {
+            var game = runningArchitects.remove(request.getId());
+            if (game == null) {
                 responseObserver.onError(new RuntimeException("Incorrect ID"));
                 return;
             }
-            runningArchitects.remove(request.getId());
-            logger.info("architect for id {} finished", request.getId());
-            responseObserver.onNext(None.newBuilder().build());
-            responseObserver.onCompleted();
+            reply(game.stop().thenRun(
+                () -> logger.info("architect for id {} finished", request.getId())),
+                responseObserver);
         }
 
         @Override
         public void endAllGames(None request, StreamObserver<None> responseObserver) {
-            for (var a: runningArchitects.values()) {
-                a.shutdown();
+            List<CompletableFuture<Void>> stopped = new ArrayList<>();
+            for (int id : runningArchitects.keySet()) {
+                var game = runningArchitects.remove(id);
+                if (game != null) {
+                    stopped.add(game.stop());
+                }
             }
-            runningArchitects.clear();
-            responseObserver.onNext(None.getDefaultInstance());
-            responseObserver.onCompleted();
+            reply(CompletableFuture.allOf(stopped.toArray(new CompletableFuture<?>[0])),
+                responseObserver);
         }
 
         /**
@@ -206,16 +327,12 @@ public class ArchitectServer {
         @Override
         public void handleStatusInformation(StatusMessage request,
                                             StreamObserver<None> responseObserver) {
-            Architect arch = runningArchitects.get(request.getGameId());
-
-            if (arch == null) {
-                Status status = Status.newBuilder()
-                        .setCode(Code.INVALID_ARGUMENT.getNumber())
-                        .setMessage("No architect running for game ID " + request.getGameId())
-                        .build();
-                responseObserver.onError(StatusProto.toStatusRuntimeException(status));
-            } else {
-                arch.handleStatusInformation(request);
+            var game = findGame(request.getGameId(), responseObserver);
+            if (game != null) {
+                // the broker forwards the next event once this call completes
+                reply(game.tell(() -> timed(
+                    () -> game.getArchitect().handleStatusInformation(request))),
+                    responseObserver);
             }
         }
 
@@ -225,16 +342,12 @@ public class ArchitectServer {
         @Override
         public void handleBlockPlaced(BlockPlacedMessage request,
                                       StreamObserver<None> responseObserver) {
-            Architect arch = runningArchitects.get(request.getGameId());
-
-            if (arch == null) {
-                Status status = Status.newBuilder()
-                    .setCode(Code.INVALID_ARGUMENT.getNumber())
-                    .setMessage("No architect running for game ID " + request.getGameId())
-                    .build();
-                responseObserver.onError(StatusProto.toStatusRuntimeException(status));
-            } else {
-                arch.handleBlockPlaced(request);
+            var game = findGame(request.getGameId(), responseObserver);
+            if (game != null) {
+                // the broker forwards the next event once this call completes
+                reply(game.tell(() -> timed(
+                    () -> game.getArchitect().handleBlockPlaced(request))),
+                    responseObserver);
             }
         }
 
@@ -244,16 +357,199 @@ public class ArchitectServer {
         @Override
         public void handleBlockDestroyed(BlockDestroyedMessage request,
                                          StreamObserver<None> responseObserver) {
-            Architect arch = runningArchitects.get(request.getGameId());
+            var game = findGame(request.getGameId(), responseObserver);
+            if (game != null) {
+                // the broker forwards the next event once this call completes
+                reply(game.tell(() -> timed(
+                    () -> game.getArchitect().handleBlockDestroyed(request))),
+                    responseObserver);
+            }
+        }
+
+        /**
+         * Delegates a stream of game events to the architects of their games
+         * and acknowledges each event once its architect has handled it.  Acks
+         * of different games may arrive out of order.
+         */
+        @Override
+        public StreamObserver<GameEventAck> gameEvents(
+            StreamObserver<GameEventAck> responseObserver) {
+            return new StreamObserver<>() {
+                // the acks come from the threads of the mailboxes; guarded by this
+                private int pending = 0;
+                private boolean completed = false;
+
+                @Override
+                public void onNext(GameEvent event) {
+                    synchronized (this) {
+                        pending++;
+                    }
+                    handleEvent(event).thenAccept(ack -> {
+                        synchronized (this) {
+                            responseObserver.onNext(ack);
+                            pending--;
+                            if (completed && pending == 0) {
+                                responseObserver.onCompleted();
+                            }
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    logger.warn("game event stream from broker failed", t);
+                }
+
+                @Override
+                public synchronized void onCompleted() {
+                    completed = true;
+                    if (pending == 0) {
+                        responseObserver.onCompleted();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Delegates a batch of game events to the architects of their games.  Events
+         * of the same game are handled in order, those of different games in parallel.
+         */
+        @Override
+        public void handleEvents(EventBatch request,
+                                 StreamObserver<EventBatchResult> responseObserver) {
+            List<CompletableFuture<GameEventAck>> acks = new ArrayList<>();
+            for (GameEvent event : request.getEventsList()) {
+                acks.add(handleEvent(event));
+            }
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+                var result = EventBatchResult.newBuilder();
+                for (var ack : acks) {
+                    result.addAcks(ack.join());
+                }
+                responseObserver.onNext(result.build());
+                responseObserver.onCompleted();
+            });
+        }
 
-            if (arch == null) {
+        private CompletableFuture<GameEventAck> handleEvent(GameEvent event) {
+            var ack = GameEventAck.newBuilder().setSequence(event.getSequence());
+            int gameId = GameEvents.gameId(event);
+            GameActor game = runningArchitects.get(gameId);
+            if (game == null) {
+                return CompletableFuture.completedFuture(
+                    ack.setError("No architect running for game ID " + gameId).build());
+            }
+            Architect arch = game.getArchitect();
+            Runnable call;
+            switch (event.getEventCase()) {
+                case STATUS:
+                    call = () -> arch.handleStatusInformation(event.getStatus());
+                    break;
+                case BLOCKPLACED:
+                    call = () -> arch.handleBlockPlaced(event.getBlockPlaced());
+                    break;
+                case BLOCKDESTROYED:
+                    call = () -> arch.handleBlockDestroyed(event.getBlockDestroyed());
+                    break;
+                default:
+                    return CompletableFuture.completedFuture(
+                        ack.setError("Empty game event").build());
+            }
+            return game.tell(() -> timed(call)).handle((done, error) -> {
+                if (error instanceof CancellationException) {
+                    ack.setError("Game " + gameId + " has ended");
+                } else if (error != null) {
+                    ack.setError(error.toString());
+                }
+                return ack.build();
+            });
+        }
+
+        /**
+         * Returns the game with the given ID, or sends an error and returns null
+         * if there is no such game.
+         */
+        private GameActor findGame(int gameId, StreamObserver<?> responseObserver) {
+            var game = runningArchitects.get(gameId);
+            if (game == null) {
                 Status status = Status.newBuilder()
                     .setCode(Code.INVALID_ARGUMENT.getNumber())
-                    .setMessage("No architect running for game ID " + request.getGameId())
+                    .setMessage("No architect running for game ID " + gameId)
                     .build();
                 responseObserver.onError(StatusProto.toStatusRuntimeException(status));
-            } else {
-                arch.handleBlockDestroyed(request);
+            }
+            return game;
+        }
+
+        /**
+         * Answers the call once the architect has handled it.
+         */
+        private void reply(CompletableFuture<Void> handled,
+                           StreamObserver<None> responseObserver) {
+            handled.whenComplete((done, failure) -> {
+                Throwable error = failure instanceof CompletionException
+                    ? failure.getCause() : failure;
+                if (error == null) {
+                    responseObserver.onNext(None.getDefaultInstance());
+                    responseObserver.onCompleted();
+                } else if (error instanceof CancellationException) {
+                    responseObserver.onError(io.grpc.Status.ABORTED
+                        .withDescription("The game has ended").asRuntimeException());
+                } else {
+                    responseObserver.onError(io.grpc.Status.UNKNOWN
+                        .withCause(error).asRuntimeException());
+                }
+            });
+        }
+
+        /**
+         * Reports the number of running architects, the handler calls in progress
+         * plus the architect tasks waiting for a thread, the latency of recent
+         * handler calls, the heap usage, the mailbox of every game and the pool
+         * of initialized architects.
+         */
+        @Override
+        public void getLoad(None request, StreamObserver<ArchitectLoad> responseObserver) {
+            double[] latency = latencies.percentilesMs(0.5, 0.95, 0.99);
+            Runtime runtime = Runtime.getRuntime();
+            var load = ArchitectLoad.newBuilder()
+                .setRunningArchitects(runningArchitects.size())
+                .setQueuedWork(activeHandlers.get()
+                    + ArchitectExecutor.shared().getQueuedTasks())
+                .setLatencyP50Ms(latency[0])
+                .setLatencyP95Ms(latency[1])
+                .setLatencyP99Ms(latency[2])
+                .setHeapUsedBytes(runtime.totalMemory() - runtime.freeMemory())
+                .setHeapMaxBytes(runtime.maxMemory());
+            for (GameActor game : runningArchitects.values()) {
+                double[] gameLatency = game.getLatencyPercentilesMs();
+                load.addGames(GameLoad.newBuilder()
+                    .setGameId(game.getGameId())
+                    .setQueuedCalls(game.getQueuedCalls())
+                    .setHandledCalls(game.getHandledCalls())
+                    .setLatencyP50Ms(gameLatency[0])
+                    .setLatencyP99Ms(gameLatency[1])
+                    .setOutboundQueued(game.getOutboundQueued())
+                    .setOutboundDropped(game.getOutboundDropped()));
+            }
+            if (warmPool != null) {
+                load.setWarmPool(warmPool.getStatistics());
+            }
+            responseObserver.onNext(load.build());
+            responseObserver.onCompleted();
+        }
+
+        /**
+         * Runs an event handler of an architect and records its latency.
+         */
+        private void timed(Runnable handler) {
+            long start = System.nanoTime();
+            activeHandlers.incrementAndGet();
+            try {
+                handler.run();
+            } finally {
+                activeHandlers.decrementAndGet();
+                latencies.record(start);
             }
         }
     }
@@ -274,7 +570,17 @@ public class ArchitectServer {
         } else {
             factory = DummyArchitect::new;
         }
-        ArchitectServer server = new ArchitectServer(10000, factory);
+        // a port or unix:///path, e.g. -Darchitect.address=unix:///run/architect.sock
+        String address = System.getProperty("architect.address", "10000");
+        ArchitectServer server = new ArchitectServer(address, factory);
+        // e.g. -Darchitect.warmPool.size=2 -Darchitect.warmPool.scenarios=house,bridge
+        String scenarios = System.getProperty("architect.warmPool.scenarios", "");
+        server.setWarmPool(Integer.getInteger("architect.warmPool.size", 0),
+            Integer.getInteger("architect.warmPool.threads", 1),
+            scenarios.isEmpty() ? List.of() : List.of(scenarios.split(",")));
+        server.setOutboundQueues(Integer.getInteger("architect.outbound.capacity", 1024),
+            OutboundQueue.OverflowPolicy.valueOf(
+                System.getProperty("architect.outbound.overflow", "DropLoggingFirst")));
         server.start();
         server.blockUntilShutdown();
     }
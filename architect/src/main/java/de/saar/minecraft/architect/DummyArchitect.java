@@ -5,14 +5,20 @@ import de.saar.minecraft.shared.BlockPlacedMessage;
 import de.saar.minecraft.shared.NewGameState;
 import de.saar.minecraft.shared.StatusMessage;
 import de.saar.minecraft.shared.WorldSelectMessage;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 
 public class DummyArchitect extends AbstractArchitect {
+    private static final Logger logger = LogManager.getLogger(DummyArchitect.class);
     private int waitTime;
     private int statusIteration;
     private int responseFrequency;
 
     private final boolean endAfterFirstBlock;
+    // the world of the scenario, null if there is no world for it
+    private ScenarioWorld world = null;
 
     public DummyArchitect(int waitTime, boolean endAfterFirstBlock, int responseFrequency) {
         this.endAfterFirstBlock = endAfterFirstBlock;
@@ -36,6 +42,11 @@ public class DummyArchitect extends AbstractArchitect {
     public void initialize(WorldSelectMessage request) {
         System.err.println("Got world " + request.getName());
         setGameId(request.getGameId());
+        try {
+            world = loadWorld(request.getName());
+        } catch (IllegalArgumentException e) {
+            logger.warn("no world for scenario {}", request.getName(), e);
+        }
     }
 
     @Override
@@ -54,18 +65,10 @@ public class DummyArchitect extends AbstractArchitect {
         }
         statusIteration = 0;
 
-        // spawn a thread for a long-running computation
-        new Thread(() -> {
-            String text = "your x was " + x + " and you looked in x direction " + xdir;
-            // delay for a bit
-            try {
-                Thread.sleep(waitTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            // send the text message back to the client
-            sendMessage(text);
-        }).start();
+        // answer after a delay, as if after a long-running computation
+        String text = "your x was " + x + " and you looked in x direction " + xdir;
+        // send the text message back to the client
+        schedule(waitTime, TimeUnit.MILLISECONDS, () -> sendMessage(text));
     }
 
     @Override
@@ -75,21 +78,18 @@ public class DummyArchitect extends AbstractArchitect {
         int y = request.getY();
         int z = request.getZ();
 
-        // spawn a thread for a long-running computation
-        new Thread(() -> {
-            String text = String.format("A block was placed at %d-%d-%d :%d", x, y, z, type);
-            var gameState = NewGameState.NotChanged;
-            if (endAfterFirstBlock) {
-                gameState = NewGameState.SuccessfullyFinished;
-            }
-            // delay for a bit
-            try {
-                Thread.sleep(waitTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            sendMessage(text, gameState);
-        }).start();
+        // answer after a delay, as if after a long-running computation
+        String text = String.format("A block was placed at %d-%d-%d :%d", x, y, z, type);
+        if (world != null && world.getTypeAt(x, y, z) != null) {
+            text += " (part of the world)";
+        }
+        var gameState = NewGameState.NotChanged;
+        if (endAfterFirstBlock) {
+            gameState = NewGameState.SuccessfullyFinished;
+        }
+        var newGameState = gameState;
+        var answer = text;
+        schedule(waitTime, TimeUnit.MILLISECONDS, () -> sendMessage(answer, newGameState));
     }
 
     @Override
@@ -99,17 +99,9 @@ public class DummyArchitect extends AbstractArchitect {
         int z = request.getZ();
         int type = request.getType();
 
-        // spawn a thread for a long-running computation
-        new Thread(() -> {
-            var text = String.format("A block was destroyed at %d-%d-%d :%d", x, y, z, type);
-            // delay for a bit
-            try {
-                Thread.sleep(waitTime);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            sendMessage(text);
-        }).start();
+        // answer after a delay, as if after a long-running computation
+        var text = String.format("A block was destroyed at %d-%d-%d :%d", x, y, z, type);
+        schedule(waitTime, TimeUnit.MILLISECONDS, () -> sendMessage(text));
     }
 
     @Override
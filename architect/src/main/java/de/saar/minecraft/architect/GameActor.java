@@ -0,0 +1,99 @@
+package de.saar.minecraft.architect;
+
+import de.saar.minecraft.util.LatencyRecorder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The architect of one game in an ArchitectServer, together with its mailbox.
+ * All calls to the architect go through the mailbox, so they run one after the
+ * other in the order in which the broker sent them, while the mailboxes of
+ * different games share the threads of the {@link ArchitectExecutor}.
+ *
+ * <p>The mailbox is separate from the background tasks of an
+ * {@link AbstractArchitect}, so a handler may wait for a task it submitted, and
+ * a slow handler does not hold up the tasks.</p>
+ */
+class GameActor {
+    private final int gameId;
+    private final Architect architect;
+    private final ArchitectExecutor.Serial mailbox;
+    // time from entering the mailbox until the call has returned
+    private final LatencyRecorder latencies = new LatencyRecorder(128);
+    private final AtomicLong handledCalls = new AtomicLong();
+    // the streams to the broker, set by the ArchitectServer
+    private volatile OutboundQueue<?> messages = null;
+    private volatile OutboundQueue<?> control = null;
+
+    GameActor(int gameId, Architect architect) {
+        this.gameId = gameId;
+        this.architect = architect;
+        this.mailbox = ArchitectExecutor.shared().newSerial();
+    }
+
+    /**
+     * Queues a call to the architect.  The future completes when the call has
+     * returned, and is cancelled if the game ends before.
+     */
+    CompletableFuture<Void> tell(Runnable call) {
+        long start = System.nanoTime();
+        return mailbox.submit(() -> {
+            call.run();
+            handledCalls.incrementAndGet();
+            latencies.record(start);
+        });
+    }
+
+    /**
+     * Shuts the architect down after the calls that are already in the mailbox,
+     * and closes the mailbox.
+     */
+    CompletableFuture<Void> stop() {
+        return tell(() -> {
+            architect.shutdown();
+            mailbox.close();
+        });
+    }
+
+    int getGameId() {
+        return gameId;
+    }
+
+    Architect getArchitect() {
+        return architect;
+    }
+
+    int getQueuedCalls() {
+        return mailbox.getQueuedTasks();
+    }
+
+    long getHandledCalls() {
+        return handledCalls.get();
+    }
+
+    void setMessages(OutboundQueue<?> messages) {
+        this.messages = messages;
+    }
+
+    void setControl(OutboundQueue<?> control) {
+        this.control = control;
+    }
+
+    int getOutboundQueued() {
+        var messages = this.messages;
+        var control = this.control;
+        return (messages == null ? 0 : messages.getQueued())
+            + (control == null ? 0 : control.getQueued());
+    }
+
+    long getOutboundDropped() {
+        var messages = this.messages;
+        var control = this.control;
+        return (messages == null ? 0 : messages.getDropped())
+            + (control == null ? 0 : control.getDropped());
+    }
+
+    double[] getLatencyPercentilesMs() {
+        return latencies.percentilesMs(0.5, 0.99);
+    }
+}
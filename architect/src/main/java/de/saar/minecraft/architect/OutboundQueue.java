@@ -0,0 +1,204 @@
+package de.saar.minecraft.architect;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A stream to the broker that only passes messages on while the transport is
+ * ready to send them, and queues them otherwise.  Any thread may send; the
+ * queue needs no lock.  The queue holds at most a fixed number of messages, so
+ * that a slow broker or player cannot fill the heap of the architect server;
+ * when it is full, the {@link OverflowPolicy} decides which message is dropped.
+ *
+ * <p>The queue has to be created while the gRPC call that opened the stream is
+ * being handled, because only then can it register for the ready signal.</p>
+ */
+public class OutboundQueue<T> implements StreamObserver<T> {
+    private static final Logger logger = LogManager.getLogger(OutboundQueue.class);
+
+    /**
+     * Which message to drop when the queue is full.
+     */
+    public enum OverflowPolicy {
+        // the oldest message that is only logged, or the oldest message if
+        // there is none
+        DropLoggingFirst,
+        DropOldest,
+        DropNewest
+    }
+
+    private final StreamObserver<T> target;
+    // null if the target cannot tell whether it is ready
+    private final ServerCallStreamObserver<T> call;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    // messages that may be dropped first, e.g. those only sent for logging
+    private final Predicate<T> expendable;
+
+    private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    // number of drain requests; the thread that raises it from 0 drains
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Throwable error = null;
+    private volatile boolean completed = false;
+    private volatile boolean closed = false;
+    private volatile Runnable onClosed = () -> { };
+
+    /**
+     * Creates a queue in front of the given stream.
+     */
+    public OutboundQueue(StreamObserver<T> target, int capacity, OverflowPolicy policy,
+                         Predicate<T> expendable) {
+        this.target = target;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.expendable = expendable;
+        ServerCallStreamObserver<T> call = null;
+        if (target instanceof ServerCallStreamObserver) {
+            call = (ServerCallStreamObserver<T>) target;
+            try {
+                call.setOnReadyHandler(this::drain);
+                call.setOnCancelHandler(this::close);
+            } catch (IllegalStateException e) {
+                // too late to register; fall back to sending without waiting
+                logger.warn("created outbound queue outside of the gRPC call, no flow control");
+                call = null;
+            }
+        }
+        this.call = call;
+    }
+
+    /**
+     * Returns the stream if it is an OutboundQueue already, and a new queue in
+     * front of it otherwise.
+     */
+    static <T> StreamObserver<T> wrap(StreamObserver<T> target, Predicate<T> expendable) {
+        if (target == null || target instanceof OutboundQueue) {
+            return target;
+        }
+        return new OutboundQueue<>(target, 1024, OverflowPolicy.DropLoggingFirst, expendable);
+    }
+
+    /**
+     * Sets the function that is called once when the broker has cancelled the
+     * stream or sending failed.
+     */
+    public void setOnClosed(Runnable onClosed) {
+        this.onClosed = onClosed;
+    }
+
+    @Override
+    public void onNext(T value) {
+        if (closed || completed) {
+            return;
+        }
+        if (size.incrementAndGet() > capacity) {
+            if (policy == OverflowPolicy.DropNewest || !dropOne()) {
+                size.decrementAndGet();
+                dropped.incrementAndGet();
+                drain();
+                return;
+            }
+        }
+        queue.add(value);
+        drain();
+    }
+
+    // removes an old message to make room for a new one
+    private boolean dropOne() {
+        if (policy == OverflowPolicy.DropLoggingFirst) {
+            Iterator<T> it = queue.iterator();
+            while (it.hasNext()) {
+                T message = it.next();
+                if (expendable.test(message) && queue.remove(message)) {
+                    size.decrementAndGet();
+                    dropped.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        if (queue.poll() != null) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        error = t;
+        completed = true;
+        drain();
+    }
+
+    @Override
+    public void onCompleted() {
+        completed = true;
+        drain();
+    }
+
+    /**
+     * Returns the number of messages waiting for the transport.
+     */
+    public int getQueued() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // sends as many messages as the transport takes, in one thread at a time
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            try {
+                T message;
+                while (!closed && (call == null || call.isReady())
+                    && (message = queue.poll()) != null) {
+                    size.decrementAndGet();
+                    target.onNext(message);
+                }
+                if (!closed && completed && queue.isEmpty()) {
+                    closed = true;
+                    if (error != null) {
+                        target.onError(error);
+                    } else {
+                        target.onCompleted();
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.warn("could not send to the broker", e);
+                close();
+            }
+            requests = drainRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private void close() {
+        boolean wasClosed = closed;
+        closed = true;
+        while (queue.poll() != null) {
+            size.decrementAndGet();
+        }
+        if (!wasClosed && !completed) {
+            onClosed.run();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package de.saar.minecraft.architect;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The blocks of a scenario world, read from a CSV file with one block
+ * per line in the form x,y,z,type.  Lines that do not start with three
+ * numbers (comments, headers) are skipped.
+ *
+ * <p>A world is immutable and can be shared by all games of the scenario,
+ * see {@link ScenarioWorldCache}.  The blocks are kept in two primitive arrays,
+ * sorted by position: the coordinates packed into one long, and the index of
+ * the block type in a table of the distinct type names.</p>
+ */
+public final class ScenarioWorld {
+    // 21 bits per coordinate, as signed values
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final int MIN = -(1 << (BITS - 1));
+    private static final int MAX = (1 << (BITS - 1)) - 1;
+
+    private final String name;
+    private final long[] positions;
+    private final short[] types;
+    private final String[] typeNames;
+
+    private ScenarioWorld(String name, long[] positions, short[] types, String[] typeNames) {
+        this.name = name;
+        this.positions = positions;
+        this.types = types;
+        this.typeNames = typeNames;
+    }
+
+    /**
+     * Reads a world from CSV.  If a position occurs more than once, the
+     * last line for it wins.
+     * @throws IllegalArgumentException if a coordinate does not fit into 21 bits
+     *     or the world has more than 32767 block types
+     */
+    public static ScenarioWorld parse(String name, BufferedReader reader) throws IOException {
+        Map<Long, String> blocks = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split(",");
+            if (fields.length < 4) {
+                continue;
+            }
+            try {
+                long position = pack(Integer.parseInt(fields[0].strip()),
+                    Integer.parseInt(fields[1].strip()),
+                    Integer.parseInt(fields[2].strip()));
+                blocks.put(position, fields[3].strip());
+            } catch (NumberFormatException e) {
+                // header or comment
+            }
+        }
+
+        long[] positions = new long[blocks.size()];
+        int i = 0;
+        for (long position : blocks.keySet()) {
+            positions[i++] = position;
+        }
+        Arrays.sort(positions);
+        short[] types = new short[positions.length];
+        List<String> typeNames = new ArrayList<>();
+        Map<String, Short> typeIndex = new HashMap<>();
+        for (i = 0; i < positions.length; i++) {
+            String type = blocks.get(positions[i]);
+            Short index = typeIndex.get(type);
+            if (index == null) {
+                if (typeNames.size() > Short.MAX_VALUE) {
+                    throw new IllegalArgumentException("Too many block types in " + name);
+                }
+                index = (short) typeNames.size();
+                typeIndex.put(type, index);
+                typeNames.add(type);
+            }
+            types[i] = index;
+        }
+        return new ScenarioWorld(name, positions, types, typeNames.toArray(new String[0]));
+    }
+
+    private static long pack(int x, int y, int z) {
+        if (x < MIN || x > MAX || y < MIN || y > MAX || z < MIN || z > MAX) {
+            throw new IllegalArgumentException(
+                "Coordinate out of range: " + x + "," + y + "," + z);
+        }
+        // the offset keeps the packed values in the order of x, then y, then z
+        return ((long) (x - MIN) << (2 * BITS)) | ((long) (y - MIN) << BITS) | (z - MIN);
+    }
+
+    private static int unpack(long position, int shift) {
+        return (int) ((position >>> shift) & MASK) + MIN;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of blocks.  Blocks are numbered from 0 to size() - 1,
+     * ordered by x, then y, then z.
+     */
+    public int size() {
+        return positions.length;
+    }
+
+    public int getX(int block) {
+        return unpack(positions[block], 2 * BITS);
+    }
+
+    public int getY(int block) {
+        return unpack(positions[block], BITS);
+    }
+
+    public int getZ(int block) {
+        return unpack(positions[block], 0);
+    }
+
+    public String getType(int block) {
+        return typeNames[types[block]];
+    }
+
+    /**
+     * Returns the type of the block at the given position, or null if the world
+     * has no block there.
+     */
+    public String getTypeAt(int x, int y, int z) {
+        if (x < MIN || x > MAX || y < MIN || y > MAX || z < MIN || z > MAX) {
+            return null;
+        }
+        int block = Arrays.binarySearch(positions, pack(x, y, z));
+        return block < 0 ? null : getType(block);
+    }
+
+    /**
+     * Returns the approximate heap size of the block arrays in bytes.
+     */
+    public long getSizeBytes() {
+        return 8L * positions.length + 2L * types.length;
+    }
+}
@@ -0,0 +1,141 @@
+package de.saar.minecraft.architect;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the {@link ScenarioWorld} of every scenario that a running game uses,
+ * so that all games of a scenario share one copy.  Each game acquires the world
+ * when it starts and releases it when it ends; a world that no game uses any
+ * more is dropped.
+ *
+ * <p>By default, worlds are read from the resource
+ * /de/saar/minecraft/worlds/&lt;scenario&gt;.csv, where the shared-resources
+ * package keeps them.</p>
+ */
+public class ScenarioWorldCache {
+    private static final Logger logger = LogManager.getLogger(ScenarioWorldCache.class);
+    private static final ScenarioWorldCache shared =
+        new ScenarioWorldCache(ScenarioWorldCache::loadResource);
+
+    private final Function<String, ScenarioWorld> loader;
+    // guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long loads = 0;
+    private long hits = 0;
+
+    private static class Entry {
+        // completed once the world has been read; games of the scenario that
+        // start in the meantime wait for it instead of reading it again
+        final CompletableFuture<ScenarioWorld> world = new CompletableFuture<>();
+        int references = 0;
+    }
+
+    /**
+     * Creates a cache that reads worlds with the given function, which gets the
+     * scenario name.
+     */
+    public ScenarioWorldCache(Function<String, ScenarioWorld> loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the cache that is used by {@link AbstractArchitect#loadWorld(String)}.
+     */
+    public static ScenarioWorldCache shared() {
+        return shared;
+    }
+
+    /**
+     * Returns the world of the scenario and reads it if no game uses it yet.
+     * Every call must be matched by a call to {@link #release(String)}.
+     * @throws IllegalArgumentException if the world cannot be read
+     */
+    public ScenarioWorld acquire(String scenario) {
+        Entry entry;
+        boolean load;
+        synchronized (this) {
+            entry = entries.computeIfAbsent(scenario, name -> new Entry());
+            entry.references++;
+            load = entry.references == 1;
+            if (load) {
+                loads++;
+            } else {
+                hits++;
+            }
+        }
+        if (load) {
+            try {
+                long start = System.nanoTime();
+                ScenarioWorld world = loader.apply(scenario);
+                logger.info("read world {} with {} blocks in {} ms", scenario, world.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+                entry.world.complete(world);
+            } catch (RuntimeException e) {
+                entry.world.completeExceptionally(e);
+            }
+        }
+        try {
+            return entry.world.join();
+        } catch (CompletionException e) {
+            release(scenario);
+            throw new IllegalArgumentException("Could not read world " + scenario, e.getCause());
+        }
+    }
+
+    /**
+     * Releases a world that was acquired before, and drops it if no other
+     * game uses it.
+     */
+    public synchronized void release(String scenario) {
+        Entry entry = entries.get(scenario);
+        if (entry != null && --entry.references == 0) {
+            entries.remove(scenario);
+        }
+    }
+
+    /**
+     * Returns the number of times a world was read.
+     */
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    /**
+     * Returns the number of times a world that was already read could be used.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of worlds in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static ScenarioWorld loadResource(String scenario) {
+        String path = String.format("/de/saar/minecraft/worlds/%s.csv", scenario);
+        InputStream in = ScenarioWorldCache.class.getResourceAsStream(path);
+        if (in == null) {
+            throw new IllegalArgumentException("No world resource " + path);
+        }
+        try (var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return ScenarioWorld.parse(scenario, reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
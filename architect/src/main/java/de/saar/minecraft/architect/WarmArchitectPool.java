@@ -0,0 +1,155 @@
+package de.saar.minecraft.architect;
+
+import de.saar.minecraft.shared.WorldSelectMessage;
+import de.saar.minecraft.util.LatencyRecorder;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps a number of architects per scenario that have already been initialized,
+ * so that a new game does not have to wait for {@link Architect#initialize}.
+ * An architect that is handed out is replaced in the background.
+ *
+ * <p>Only the scenarios given to the constructor are pooled; a game for another
+ * scenario initializes its own architect, so that requests cannot make the pool
+ * grow without limit.  The architects are initialized with game ID 0 and get the
+ * real one through {@link Architect#setGameId(int)}, so only subclasses of
+ * {@link AbstractArchitect}, which use it for their messages, can be pooled.  If
+ * the factory builds other architects, the pool turns itself off.</p>
+ */
+class WarmArchitectPool {
+    private static final Logger logger = LogManager.getLogger(WarmArchitectPool.class);
+
+    private final ArchitectFactory factory;
+    private final int size;
+    // only contains the configured scenarios, never changed after the constructor
+    private final Map<String, Scenario> scenarios = new ConcurrentHashMap<>();
+    // set if the factory builds architects that cannot take a new game ID
+    private volatile boolean disabled = false;
+    // initialization can take seconds, so it does not run on the ArchitectExecutor
+    private final ExecutorService refills;
+    private final LatencyRecorder refillLatencies = new LatencyRecorder(128);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Scenario {
+        final Queue<Architect> ready = new ConcurrentLinkedQueue<>();
+        // architects that are being initialized
+        final AtomicInteger pending = new AtomicInteger();
+    }
+
+    /**
+     * Creates a pool with the given number of architects per scenario, which
+     * are initialized by the given number of threads.
+     */
+    WarmArchitectPool(ArchitectFactory factory, int size, int threads,
+                      Collection<String> scenarioNames) {
+        this.factory = factory;
+        this.size = size;
+        AtomicInteger count = new AtomicInteger();
+        refills = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "architect-warmup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (String name : scenarioNames) {
+            refill(name, scenarios.computeIfAbsent(name, n -> new Scenario()));
+        }
+    }
+
+    /**
+     * Returns an initialized architect for the scenario of the request, or null
+     * if none is ready; the caller then has to initialize one itself.
+     */
+    Architect take(WorldSelectMessage request) {
+        Scenario scenario = scenarios.get(request.getName());
+        if (scenario == null || disabled) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Architect architect = scenario.ready.poll();
+        refill(request.getName(), scenario);
+        if (architect == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        architect.setGameId(request.getGameId());
+        return architect;
+    }
+
+    private void refill(String name, Scenario scenario) {
+        while (!disabled) {
+            int pending = scenario.pending.get();
+            if (scenario.ready.size() + pending >= size) {
+                return;
+            }
+            if (scenario.pending.compareAndSet(pending, pending + 1)) {
+                refills.execute(() -> initialize(name, scenario));
+            }
+        }
+    }
+
+    private void initialize(String name, Scenario scenario) {
+        long start = System.nanoTime();
+        try {
+            Architect architect = factory.build();
+            if (!(architect instanceof AbstractArchitect)) {
+                if (!disabled) {
+                    disabled = true;
+                    logger.warn("{} does not extend AbstractArchitect and cannot be given "
+                        + "a new game ID, warm pool turned off", architect.getClass().getName());
+                }
+                return;
+            }
+            architect.initialize(WorldSelectMessage.newBuilder().setName(name).build());
+            scenario.ready.add(architect);
+            refillLatencies.record(start);
+        } catch (RuntimeException e) {
+            // no retry, the next game for the scenario tries again
+            logger.error("could not initialize an architect for scenario {}", name, e);
+        } finally {
+            scenario.pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the statistics of the pool for GetLoad.
+     */
+    WarmPoolStatistics getStatistics() {
+        int ready = 0;
+        for (Scenario scenario : scenarios.values()) {
+            ready += scenario.ready.size();
+        }
+        double[] latency = refillLatencies.percentilesMs(0.5, 0.99);
+        return WarmPoolStatistics.newBuilder()
+            .setHits(hits.get())
+            .setMisses(misses.get())
+            .setReady(ready)
+            .setRefillP50Ms(latency[0])
+            .setRefillP99Ms(latency[1])
+            .build();
+    }
+
+    /**
+     * Stops the refills and shuts down the architects that were not used.
+     */
+    void shutdown() {
+        refills.shutdownNow();
+        for (Scenario scenario : scenarios.values()) {
+            Architect architect;
+            while ((architect = scenario.ready.poll()) != null) {
+                architect.shutdown();
+            }
+        }
+    }
+}
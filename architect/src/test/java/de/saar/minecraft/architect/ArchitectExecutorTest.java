@@ -0,0 +1,117 @@
+package de.saar.minecraft.architect;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ArchitectExecutorTest {
+    private ArchitectExecutor executor;
+
+    @BeforeEach
+    public void setup() {
+        executor = new ArchitectExecutor(4);
+    }
+
+    @AfterEach
+    public void teardown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRunsTasksInOrder() throws Exception {
+        var serial = executor.newSerial();
+        List<Integer> order = new ArrayList<>();
+        CompletableFuture<Void> last = null;
+        for (int i = 0; i < 1000; i++) {
+            int task = i;
+            last = serial.submit(() -> order.add(task));
+        }
+        last.get(5, TimeUnit.SECONDS);
+        assertEquals(1000, order.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, order.get(i));
+        }
+    }
+
+    @Test
+    public void testContinuesAfterFailingTask() throws Exception {
+        var serial = executor.newSerial();
+        var failed = serial.submit(() -> {
+            throw new AssertionError("architect bug");
+        });
+        var next = serial.submit(() -> { });
+        next.get(5, TimeUnit.SECONDS);
+        var error = assertThrows(ExecutionException.class, failed::get);
+        assertTrue(error.getCause() instanceof AssertionError);
+    }
+
+    @Test
+    public void testCloseCancelsPendingTasks() throws Exception {
+        var serial = executor.newSerial();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var running = serial.submit(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        var ran = new AtomicBoolean(false);
+        var pending = serial.submit(() -> ran.set(true));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        serial.close();
+        release.countDown();
+        // the running task is not interrupted
+        running.get(5, TimeUnit.SECONDS);
+        assertTrue(pending.isCancelled());
+        assertTrue(serial.submit(() -> ran.set(true)).isCancelled());
+        assertFalse(ran.get());
+        assertEquals(0, serial.getQueuedTasks());
+    }
+
+    @Test
+    public void testCloseCancelsDelayedTasks() throws Exception {
+        var serial = executor.newSerial();
+        var ran = new AtomicBoolean(false);
+        var delayed = serial.schedule(100, TimeUnit.MILLISECONDS, () -> ran.set(true));
+        serial.close();
+        assertTrue(delayed.isCancelled());
+        Thread.sleep(300);
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void testRunsSerialsInParallel() throws Exception {
+        var first = executor.newSerial();
+        var second = executor.newSerial();
+        var bothRunning = new CountDownLatch(2);
+        Runnable task = () -> {
+            bothRunning.countDown();
+            try {
+                bothRunning.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        var a = first.submit(task);
+        var b = second.submit(task);
+        a.get(10, TimeUnit.SECONDS);
+        b.get(10, TimeUnit.SECONDS);
+        assertEquals(0, bothRunning.getCount());
+    }
+}
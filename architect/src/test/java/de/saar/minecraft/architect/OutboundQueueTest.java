@@ -0,0 +1,189 @@
+package de.saar.minecraft.architect;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class OutboundQueueTest {
+
+    /**
+     * A stream to the broker whose readiness is set by the test.
+     */
+    private static class FakeCall extends ServerCallStreamObserver<Integer> {
+        final List<Integer> sent = new ArrayList<>();
+        boolean ready = false;
+        boolean completed = false;
+        Runnable onReady = null;
+        Runnable onCancel = null;
+
+        void becomeReady() {
+            ready = true;
+            onReady.run();
+        }
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+            onReady = onReadyHandler;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+            onCancel = onCancelHandler;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+
+        @Override
+        public void onNext(Integer value) {
+            sent.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            completed = true;
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+    }
+
+    private static OutboundQueue<Integer> queue(FakeCall call, int capacity,
+                                                OutboundQueue.OverflowPolicy policy) {
+        // negative numbers stand for messages that are only logged
+        return new OutboundQueue<>(call, capacity, policy, value -> value < 0);
+    }
+
+    @Test
+    public void testSendsWhileReady() {
+        var call = new FakeCall();
+        call.ready = true;
+        var queue = queue(call, 10, OutboundQueue.OverflowPolicy.DropOldest);
+        queue.onNext(1);
+        queue.onNext(2);
+        assertEquals(List.of(1, 2), call.sent);
+        assertEquals(0, queue.getQueued());
+    }
+
+    @Test
+    public void testQueuesUntilReady() {
+        var call = new FakeCall();
+        var queue = queue(call, 10, OutboundQueue.OverflowPolicy.DropOldest);
+        queue.onNext(1);
+        queue.onNext(2);
+        queue.onNext(3);
+        assertTrue(call.sent.isEmpty());
+        assertEquals(3, queue.getQueued());
+
+        call.becomeReady();
+        assertEquals(List.of(1, 2, 3), call.sent);
+        assertEquals(0, queue.getQueued());
+    }
+
+    @Test
+    public void testCompletesAfterQueuedMessages() {
+        var call = new FakeCall();
+        var queue = queue(call, 10, OutboundQueue.OverflowPolicy.DropOldest);
+        queue.onNext(1);
+        queue.onCompleted();
+        assertFalse(call.completed);
+
+        call.becomeReady();
+        assertEquals(List.of(1), call.sent);
+        assertTrue(call.completed);
+    }
+
+    @Test
+    public void testDropOldest() {
+        var call = new FakeCall();
+        var queue = queue(call, 2, OutboundQueue.OverflowPolicy.DropOldest);
+        queue.onNext(1);
+        queue.onNext(2);
+        queue.onNext(3);
+        assertEquals(2, queue.getQueued());
+        assertEquals(1, queue.getDropped());
+
+        call.becomeReady();
+        assertEquals(List.of(2, 3), call.sent);
+    }
+
+    @Test
+    public void testDropNewest() {
+        var call = new FakeCall();
+        var queue = queue(call, 2, OutboundQueue.OverflowPolicy.DropNewest);
+        queue.onNext(1);
+        queue.onNext(2);
+        queue.onNext(3);
+        assertEquals(1, queue.getDropped());
+
+        call.becomeReady();
+        assertEquals(List.of(1, 2), call.sent);
+    }
+
+    @Test
+    public void testDropLoggingFirst() {
+        var call = new FakeCall();
+        var queue = queue(call, 2, OutboundQueue.OverflowPolicy.DropLoggingFirst);
+        queue.onNext(1);
+        queue.onNext(-2);
+        // the logged message goes first, although it is not the oldest
+        queue.onNext(3);
+        // no logged message left, so the oldest goes
+        queue.onNext(4);
+        assertEquals(2, queue.getDropped());
+
+        call.becomeReady();
+        assertEquals(List.of(3, 4), call.sent);
+    }
+
+    @Test
+    public void testCancelClearsQueue() {
+        var call = new FakeCall();
+        var queue = queue(call, 10, OutboundQueue.OverflowPolicy.DropOldest);
+        var closed = new AtomicInteger();
+        queue.setOnClosed(closed::incrementAndGet);
+        queue.onNext(1);
+        queue.onNext(2);
+
+        call.onCancel.run();
+        assertEquals(0, queue.getQueued());
+        assertEquals(1, closed.get());
+
+        // nothing is sent to a cancelled stream
+        queue.onNext(3);
+        call.becomeReady();
+        assertTrue(call.sent.isEmpty());
+        assertEquals(1, closed.get());
+    }
+}
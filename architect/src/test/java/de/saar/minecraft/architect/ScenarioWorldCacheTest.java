@@ -0,0 +1,44 @@
+package de.saar.minecraft.architect;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ScenarioWorldCacheTest {
+
+    @Test
+    public void testSharesWorldOfScenario() {
+        var cache = ScenarioWorldCache.shared();
+        long loads = cache.getLoads();
+        long hits = cache.getHits();
+        int size = cache.size();
+
+        // the world comes from the shared-resources package
+        ScenarioWorld first = cache.acquire("house");
+        ScenarioWorld second = cache.acquire("house");
+        assertSame(first, second);
+        assertEquals("house", first.getName());
+        assertTrue(first.size() > 0);
+        assertNotNull(first.getTypeAt(first.getX(0), first.getY(0), first.getZ(0)));
+        assertEquals(loads + 1, cache.getLoads());
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(size + 1, cache.size());
+
+        cache.release("house");
+        assertEquals(size + 1, cache.size());
+        cache.release("house");
+        assertEquals(size, cache.size());
+    }
+
+    @Test
+    public void testUnknownScenario() {
+        var cache = ScenarioWorldCache.shared();
+        int size = cache.size();
+        assertThrows(IllegalArgumentException.class, () -> cache.acquire("no-such-scenario"));
+        assertEquals(size, cache.size());
+    }
+}
@@ -0,0 +1,69 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.util.LatencyRecorder;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the calls on the channel to one architect server.  Tracks the calls
+ * that have been started and not closed yet (open streams count as one call
+ * each), the calls that exceeded their deadline, and the latency of recent
+ * unary calls.
+ */
+class ArchitectCallStatistics implements ClientInterceptor {
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final LatencyRecorder latencies = new LatencyRecorder(1024);
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * Returns the p50, p95 and p99 latency of recent unary calls in milliseconds.
+     */
+    public double[] getLatencyPercentilesMs() {
+        return latencies.percentilesMs(0.5, 0.95, 0.99);
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+        MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        boolean unary = method.getType() == MethodDescriptor.MethodType.UNARY;
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(
+            next.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                long start = System.nanoTime();
+                outstanding.incrementAndGet();
+                super.start(new ForwardingClientCallListener
+                    .SimpleForwardingClientCallListener<>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        outstanding.decrementAndGet();
+                        if (status.getCode() == Status.Code.DEADLINE_EXCEEDED) {
+                            timeouts.incrementAndGet();
+                        }
+                        if (unary) {
+                            latencies.record(start);
+                        }
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            }
+        };
+    }
+}
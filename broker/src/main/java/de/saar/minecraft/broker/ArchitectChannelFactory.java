@@ -0,0 +1,179 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.broker.BrokerConfiguration.ChannelConfiguration.ExecutorType;
+import de.saar.minecraft.util.Util;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Builds the gRPC channels to the architect servers according to the
+ * {@link BrokerConfiguration.ChannelConfiguration} of each server.  All epoll
+ * channels share one event loop, which is shut down together with the factory.
+ */
+class ArchitectChannelFactory {
+    private static final Logger logger = LogManager.getLogger(ArchitectChannelFactory.class);
+
+    /**
+     * The channels to one architect server.  Calls are distributed round-robin
+     * over the subchannels, so that many long-lived streams are spread over
+     * several HTTP/2 connections.
+     */
+    static class ArchitectChannel extends Channel {
+        private final List<ManagedChannel> subchannels;
+        // the Pool executor of the subchannels, or null
+        private final ExecutorService executor;
+        private final AtomicInteger next = new AtomicInteger();
+
+        ArchitectChannel(List<ManagedChannel> subchannels, ExecutorService executor) {
+            this.subchannels = subchannels;
+            this.executor = executor;
+        }
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+            MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+            int index = Math.floorMod(next.getAndIncrement(), subchannels.size());
+            return subchannels.get(index).newCall(method, callOptions);
+        }
+
+        @Override
+        public String authority() {
+            return subchannels.get(0).authority();
+        }
+
+        public void shutdown() {
+            subchannels.forEach(ManagedChannel::shutdown);
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+
+        public void shutdownNow() {
+            subchannels.forEach(ManagedChannel::shutdownNow);
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private EventLoopGroup epollGroup = null;
+
+    /**
+     * Opens the channels to an architect server.  A hostname of the form
+     * unix:///path connects to a Unix domain socket (Linux only), and one of the form
+     * inprocess:name to an in-process server in the same JVM; both ignore the port.
+     * @param serviceConfig the default service config of every subchannel
+     */
+    public synchronized ArchitectChannel open(String hostname, int port,
+                                              BrokerConfiguration.ChannelConfiguration config,
+                                              Map<String, ?> serviceConfig) {
+        ExecutorService executor = null;
+        if (config.getExecutor() == ExecutorType.Pool) {
+            executor = Executors.newFixedThreadPool(config.getExecutorThreads(), runnable -> {
+                Thread thread = new Thread(runnable, "architect-" + hostname + ":" + port);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        String socketPath = Util.domainSocketPath(hostname);
+        boolean epoll = config.getEpoll() && Epoll.isAvailable();
+        if (socketPath != null && !Epoll.isAvailable()) {
+            throw new IllegalArgumentException("Unix domain sockets need the epoll transport, "
+                + "which is not available: " + hostname);
+        } else if (socketPath == null && Util.inProcessName(hostname) == null
+            && config.getEpoll() && !epoll) {
+            logger.info("epoll transport not available, using NIO for {}:{}", hostname, port);
+        }
+
+        String inProcessName = Util.inProcessName(hostname);
+        if (inProcessName != null) {
+            // no transport, so the transport settings don't apply
+            var builder = InProcessChannelBuilder.forName(inProcessName)
+                .defaultServiceConfig(serviceConfig)
+                .enableRetry();
+            if (config.getExecutor() == ExecutorType.Direct) {
+                builder.directExecutor();
+            } else if (executor != null) {
+                builder.executor(executor);
+            }
+            return new ArchitectChannel(List.of(builder.build()), executor);
+        }
+
+        List<ManagedChannel> subchannels = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, config.getSubchannels()); i++) {
+            NettyChannelBuilder builder;
+            if (socketPath != null) {
+                builder = NettyChannelBuilder.forAddress(new DomainSocketAddress(socketPath))
+                    .eventLoopGroup(epollGroup())
+                    .channelType(EpollDomainSocketChannel.class);
+            } else {
+                builder = NettyChannelBuilder.forAddress(hostname, port);
+                if (epoll) {
+                    builder.eventLoopGroup(epollGroup()).channelType(EpollSocketChannel.class);
+                }
+            }
+            builder
+                // Channels are secure by default (via SSL/TLS).
+                // we disable TLS to avoid needing certificates.
+                .usePlaintext()
+                .defaultServiceConfig(serviceConfig)
+                .enableRetry();
+            if (config.getExecutor() == ExecutorType.Direct) {
+                builder.directExecutor();
+            } else if (executor != null) {
+                builder.executor(executor);
+            }
+            if (config.getKeepAliveTimeMs() > 0) {
+                builder.keepAliveTime(config.getKeepAliveTimeMs(), TimeUnit.MILLISECONDS)
+                    .keepAliveTimeout(config.getKeepAliveTimeoutMs(), TimeUnit.MILLISECONDS)
+                    .keepAliveWithoutCalls(config.getKeepAliveWithoutCalls());
+            }
+            if (config.getFlowControlWindowBytes() > 0) {
+                builder.flowControlWindow(config.getFlowControlWindowBytes());
+            }
+            if (config.getMaxInboundMessageBytes() > 0) {
+                builder.maxInboundMessageSize(config.getMaxInboundMessageBytes());
+            }
+            subchannels.add(builder.build());
+        }
+        return new ArchitectChannel(subchannels, executor);
+    }
+
+    private EventLoopGroup epollGroup() {
+        if (epollGroup == null) {
+            epollGroup = new EpollEventLoopGroup(0,
+                new DefaultThreadFactory("architect-epoll", true));
+        }
+        return epollGroup;
+    }
+
+    /**
+     * Shuts down the epoll event loop.  Call after all channels have been shut down.
+     */
+    public synchronized void shutdown() {
+        if (epollGroup != null) {
+            epollGroup.shutdownGracefully();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.architect.ArchitectLoad;
+import de.saar.minecraft.shared.None;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Polls the load of all architect servers with GetLoad and marks servers as
+ * saturated, so that {@link ArchitectPool} gives them no new games while other
+ * servers of the pool have headroom.  A server that does not answer counts as
+ * saturated until it answers again.
+ */
+class ArchitectLoadMonitor {
+    private static final Logger logger = LogManager.getLogger(ArchitectLoadMonitor.class);
+
+    private final List<Broker.ArchitectConnection> connections;
+    private final BrokerConfiguration.LoadConfiguration config;
+    private final ScheduledExecutorService scheduler;
+
+    public ArchitectLoadMonitor(List<Broker.ArchitectConnection> connections,
+                                BrokerConfiguration.LoadConfiguration config,
+                                ScheduledExecutorService scheduler) {
+        this.connections = connections;
+        this.config = config;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts polling, unless polling is disabled by a poll interval of 0.
+     */
+    public void start() {
+        if (config.getPollIntervalMs() <= 0) {
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::pollAll, 0, config.getPollIntervalMs(),
+            TimeUnit.MILLISECONDS);
+    }
+
+    private void pollAll() {
+        for (var connection : connections) {
+            var call = new FutureStreamObserver<ArchitectLoad>();
+            connection.nonblockingArchitectStub
+                .withDeadlineAfter(config.getPollIntervalMs(), TimeUnit.MILLISECONDS)
+                .getLoad(None.getDefaultInstance(), call);
+            call.future().whenComplete((load, error) -> {
+                if (error != null) {
+                    if (!connection.saturated) {
+                        logger.warn("Could not get load of architect server {}:{}",
+                            connection.host, connection.port, error);
+                    }
+                    connection.load = null;
+                    connection.saturated = true;
+                    return;
+                }
+                boolean saturated = isSaturated(load);
+                if (saturated && !connection.saturated) {
+                    logger.warn("Architect server {}:{} is saturated: {}", connection.host,
+                        connection.port, load.toString().replace('\n', ' '));
+                }
+                connection.load = load;
+                connection.saturated = saturated;
+            });
+        }
+    }
+
+    private boolean isSaturated(ArchitectLoad load) {
+        return (config.getMaxRunningArchitects() > 0
+                && load.getRunningArchitects() >= config.getMaxRunningArchitects())
+            || (config.getMaxQueuedWork() > 0
+                && load.getQueuedWork() >= config.getMaxQueuedWork())
+            || (config.getMaxLatencyP99Ms() > 0
+                && load.getLatencyP99Ms() >= config.getMaxLatencyP99Ms())
+            || (config.getMaxHeapFraction() > 0 && load.getHeapMaxBytes() > 0
+                && load.getHeapUsedBytes() >= config.getMaxHeapFraction() * load.getHeapMaxBytes());
+    }
+}
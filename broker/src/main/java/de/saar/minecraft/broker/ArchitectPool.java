@@ -0,0 +1,83 @@
+package de.saar.minecraft.broker;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToIntFunction;
+
+/**
+ * All architect servers that report the same architect information.  They run
+ * the same architect, so a game can go to any of them; the pool picks the one
+ * with the least load.  Servers that the {@link ArchitectLoadMonitor} reports as
+ * saturated only get games if all servers of the pool are saturated.
+ *
+ * <p>Which architect a game gets for the experimental design is decided by the
+ * {@link GameBalancer}, which only sees one entry per pool.  The pool only
+ * spreads the games of that architect over its servers.</p>
+ */
+class ArchitectPool {
+
+    /**
+     * How the server for a new game is chosen within a pool.
+     */
+    public enum Strategy {
+        /** The server with the fewest running games. */
+        LeastGames(connection -> connection.runningGames.get()),
+        /** The server with the fewest RPCs that have been started and not closed. */
+        LeastOutstandingRpcs(connection -> connection.calls.getOutstanding());
+
+        private final ToIntFunction<Broker.ArchitectConnection> load;
+
+        Strategy(ToIntFunction<Broker.ArchitectConnection> load) {
+            this.load = load;
+        }
+    }
+
+    private final String info;
+    private final Strategy strategy;
+    private final List<Broker.ArchitectConnection> members = new CopyOnWriteArrayList<>();
+
+    public ArchitectPool(String info, Strategy strategy) {
+        this.info = info;
+        this.strategy = strategy;
+    }
+
+    public String getInfo() {
+        return info;
+    }
+
+    public List<Broker.ArchitectConnection> getMembers() {
+        return members;
+    }
+
+    public void add(Broker.ArchitectConnection connection) {
+        members.add(connection);
+    }
+
+    public void remove(Broker.ArchitectConnection connection) {
+        members.remove(connection);
+    }
+
+    /**
+     * Returns the member with the least load, preferring members that are not
+     * saturated.  Ties go to the member that was added first.
+     */
+    public Broker.ArchitectConnection select() {
+        return members.stream()
+            .min(Comparator.<Broker.ArchitectConnection, Boolean>comparing(c -> c.saturated)
+                .thenComparingInt(strategy.load))
+            .orElseThrow(() -> new IllegalStateException("Empty architect pool " + info));
+    }
+
+    /**
+     * Returns the member with the least load other than the given one, or null
+     * if the pool has no other member.
+     */
+    public Broker.ArchitectConnection selectOther(Broker.ArchitectConnection excluded) {
+        return members.stream()
+            .filter(connection -> connection != excluded)
+            .min(Comparator.<Broker.ArchitectConnection, Boolean>comparing(c -> c.saturated)
+                .thenComparingInt(strategy.load))
+            .orElse(null);
+    }
+}
@@ -0,0 +1,59 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.architect.ArchitectGrpc;
+import io.grpc.MethodDescriptor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the gRPC service config for the channels to the architect servers.  It
+ * gives every unary Architect call a deadline and lets gRPC retry the idempotent
+ * ones if the architect server is unavailable.  Streams get no deadline, as they
+ * are open for the whole game.
+ */
+class ArchitectServiceConfig {
+    // calls that can be repeated without changing the state of the architect
+    private static final Set<String> IDEMPOTENT = Set.of(
+        "Hello", "GetLoad", "PlayerReady", "EndGame", "EndAllGames");
+
+    /**
+     * Returns the service config in the JSON-like form of
+     * {@link io.grpc.ManagedChannelBuilder#defaultServiceConfig(Map)}.
+     */
+    public static Map<String, Object> build(BrokerConfiguration.TimeoutConfiguration config) {
+        List<Object> methodConfigs = new ArrayList<>();
+        for (var method : ArchitectGrpc.getServiceDescriptor().getMethods()) {
+            if (method.getType() != MethodDescriptor.MethodType.UNARY) {
+                continue;
+            }
+            String name = MethodDescriptor.extractBareMethodName(method.getFullMethodName());
+            long timeoutMs = config.getArchitectRpcMs()
+                .getOrDefault(name, config.getArchitectMs()).longValue();
+
+            var methodConfig = new HashMap<String, Object>();
+            methodConfig.put("name", List.of(Map.of(
+                "service", ArchitectGrpc.SERVICE_NAME,
+                "method", name)));
+            methodConfig.put("timeout", seconds(timeoutMs));
+            if (IDEMPOTENT.contains(name) && config.getMaxAttempts() > 1) {
+                methodConfig.put("retryPolicy", Map.of(
+                    // numbers must be doubles in a service config
+                    "maxAttempts", (double) config.getMaxAttempts(),
+                    "initialBackoff", seconds(config.getRetryBackoffMs()),
+                    "maxBackoff", seconds(config.getRetryBackoffMs() * 10),
+                    "backoffMultiplier", 2.0,
+                    "retryableStatusCodes", List.of("UNAVAILABLE")));
+            }
+            methodConfigs.add(methodConfig);
+        }
+        return Map.of("methodConfig", methodConfigs);
+    }
+
+    private static String seconds(long ms) {
+        return String.format(Locale.ROOT, "%.3fs", ms / 1000.0);
+    }
+}
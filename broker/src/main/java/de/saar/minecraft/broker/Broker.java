@@ -3,19 +3,24 @@ package de.saar.minecraft.broker;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.MessageOrBuilder;
 import com.google.protobuf.TextFormat;
+import de.saar.minecraft.architect.ArchitectFactory;
 import de.saar.minecraft.architect.ArchitectGrpc;
-import de.saar.minecraft.architect.ArchitectGrpc.ArchitectBlockingStub;
 import de.saar.minecraft.architect.ArchitectInformation;
+import de.saar.minecraft.architect.ArchitectLoad;
+import de.saar.minecraft.architect.ArchitectServer;
 import de.saar.minecraft.broker.db.GameLogsDirection;
 import de.saar.minecraft.broker.db.GameStatus;
 import de.saar.minecraft.broker.db.Tables;
 import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
 import de.saar.minecraft.broker.db.tables.records.GamesRecord;
 import de.saar.minecraft.shared.*;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.pool.HikariPool;
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ScanResult;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
 import io.grpc.Status;
@@ -27,22 +32,30 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
 import org.jooq.DSLContext;
-import org.jooq.Record;
-import org.jooq.Result;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
 
@@ -59,22 +72,63 @@ public class Broker {
 
     private Server server;
 
-    private List<ArchitectConnection> architectConnections = new ArrayList<>();
+    // all connected architect servers, including draining ones
+    private final List<ArchitectConnection> architectConnections = new CopyOnWriteArrayList<>();
+    // architect servers with the same architect info, by architect info; guarded by this
+    private final Map<String, ArchitectPool> architectPools = new LinkedHashMap<>();
 
-    private HashMap<Integer, ArchitectConnection> runningGames = new HashMap<>();
-    private ConcurrentHashMap<Integer, Questionnaire> questionnaires = new ConcurrentHashMap<>();
+    // all games between startGame and endGame, by game id
+    private final ConcurrentHashMap<Integer, GameSession> sessions = new ConcurrentHashMap<>();
 
 
-    private static class ArchitectConnection {
+    static class ArchitectConnection {
+        public ArchitectChannelFactory.ArchitectChannel channel;
         public ArchitectGrpc.ArchitectStub nonblockingArchitectStub;
         public ArchitectGrpc.ArchitectBlockingStub blockingArchitectStub;
         public ArchitectInformation architectInfo;
         public String host;
         public int port;
+        // load counters for the selection within an ArchitectPool; a game counts
+        // from the moment the server is selected for it, see reserve()
+        public final AtomicInteger runningGames = new AtomicInteger();
+        // open calls, timeouts and latencies on the channel
+        public final ArchitectCallStatistics calls = new ArchitectCallStatistics();
+        // last load reported by the server, null if it did not answer
+        public volatile ArchitectLoad load;
+        // set by the ArchitectLoadMonitor
+        public volatile boolean saturated = false;
+        // deregistered, gets no new games and is closed after its last game
+        public volatile boolean draining = false;
+        // the server of an embedded architect, null for remote architect servers
+        public ArchitectServer embeddedServer;
+
+        void close() {
+            channel.shutdown();
+            if (embeddedServer != null) {
+                embeddedServer.stop();
+            }
+        }
     }
 
     final BrokerConfiguration config;
+    // connection pools for the hot write path and for the HTTP/statistics read path
+    private HikariDataSource writeDataSource;
+    private HikariDataSource readDataSource;
     private DSLContext jooq;
+    private DSLContext readJooq;
+    private GameLogWriter logWriter;
+    private GameBalancer balancer;
+    // runs the blocking JDBC calls of the startGame pipeline off the gRPC threads
+    private ExecutorService databaseExecutor;
+    private final ArchitectChannelFactory channelFactory = new ArchitectChannelFactory();
+    private IdAllocator gameIds;
+    // delays status updates of games that exceed the maximum status rate
+    private final ScheduledExecutorService eventScheduler =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "game-event-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
 
     private final TextFormat.Printer pr = TextFormat.printer();
     private List<String> scenarios;
@@ -89,19 +143,18 @@ public class Broker {
         initScenarios(config.getScenarios());
         initQuestionnaires(config.getScenarios());
         this.config = config;
-        jooq = setupDatabase();
-        // Do a random query every 20 minutes to keep the
-        // database connection alive.
-        new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(20*1000*60);
-                } catch (InterruptedException e) {
-                    //whatever, we don't care
-                }
-                jooq.select().from(Tables.GAMES).fetch();
-            }
-        }).start();
+        setupDatabase();
+        databaseExecutor = createDatabaseExecutor(config.getDatabase().getWritePoolSize());
+        gameIds = new IdAllocator(jooq, "games", config.getDatabase().getIdBlockSize());
+        logWriter = new GameLogWriter(jooq, config.getLogWriter());
+        balancer = new GameBalancer(jooq, config.getBalancing());
+        if (config.getDatabase().getBackfillBatchSize() > 0) {
+            var logConfig = config.getLogWriter();
+            boolean convertToBinary = logConfig.getFormat() == GameLogCodec.Format.Binary
+                && logConfig.getConvertExistingLogs();
+            new GameLogsBackfill(jooq, config.getDatabase().getBackfillBatchSize(),
+                convertToBinary).start();
+        }
 
         // start web server
         if (config.getHttpPort() == 0) {
@@ -115,10 +168,32 @@ public class Broker {
         }
     }
 
+    /**
+     * Returns the session of a running game, or null if there is no such game.
+     */
+    GameSession getSession(int gameId) {
+        return sessions.get(gameId);
+    }
+
     DSLContext getJooq() {
         return jooq;
     }
 
+    /**
+     * Returns a DSLContext for analytics and the HTTP server.  It uses a separate
+     * connection pool so that slow dashboard queries never block game logging.
+     */
+    DSLContext getReadJooq() {
+        return readJooq;
+    }
+
+    /**
+     * Returns the connections to all architect servers.
+     */
+    List<ArchitectConnection> getArchitectConnections() {
+        return architectConnections;
+    }
+
     public BrokerConfiguration getConfig() {
         return config;
     }
@@ -129,38 +204,29 @@ public class Broker {
      * @throws IOException in case the broker grpc service cannot be started
      */
     public void start() throws IOException {
-        // First, connect to all architects.
-        for (var asa: config.getArchitectServers()) {
-            var archConn = new ArchitectConnection();
-            ManagedChannel channelToArchitect = ManagedChannelBuilder
-                .forAddress(asa.getHostname(),
-                    asa.getPort())
-                // Channels are secure by default (via SSL/TLS).
-                // we disable TLS to avoid needing certificates.
-                .usePlaintext()
-                .build();
-            archConn.host = asa.getHostname();
-            archConn.port = asa.getPort();
-            archConn.nonblockingArchitectStub = ArchitectGrpc.newStub(channelToArchitect);
-            archConn.blockingArchitectStub = ArchitectGrpc.newBlockingStub(channelToArchitect);
-            // check connection to Architect server and get architectInfo string
-            try {
-                archConn.architectInfo = archConn.blockingArchitectStub.hello(
-                    None.newBuilder().build());
-            } catch (StatusRuntimeException e) {
-                logger.error("Failed to connect to architect server at "
-                    + asa + "\n"
-                    + e.getCause().getMessage());
-                System.exit(1);
-            }
-            logger.info("Connected to architect server at " + asa);
-            this.architectConnections.add(archConn);
+        // First, connect to all architects concurrently.  Servers that are not
+        // available now can be registered later through the BrokerAdmin service.
+        var connecting = config.getArchitectServers().stream()
+            .map(asa -> connectArchitect(asa)
+                .exceptionally(error -> {
+                    logger.error("Failed to connect to architect server at {}", asa, error);
+                    return null;
+                }))
+            .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(connecting).join();
+        if (architectConnections.isEmpty()) {
+            logger.warn("No architect server available, games can only start once one "
+                + "is registered.");
         }
 
+        // the polls are asynchronous calls, so they can share the event scheduler
+        new ArchitectLoadMonitor(architectConnections, config.getLoad(), eventScheduler).start();
+
         // Second open Broker service.
         int port = config.getPort();
         server = ServerBuilder.forPort(port)
                 .addService(new BrokerImpl())
+                .addService(new BrokerAdminImpl())
                 .build()
                 .start();
         Runtime.getRuntime().addShutdownHook(new Thread(Broker.this::stop));
@@ -168,17 +234,170 @@ public class Broker {
         logger.info("Broker service running.");
     }
 
+    /**
+     * Connects to an architect server and adds it to the pool of its architect once
+     * it has answered the hello handshake within the architect timeout.  If the
+     * server is already connected, the existing connection is returned.
+     */
+    CompletableFuture<ArchitectConnection> connectArchitect(
+        BrokerConfiguration.ArchitectServerAddress address) {
+        var existing = findArchitect(address.getHostname(), address.getPort());
+        if (existing != null) {
+            return CompletableFuture.completedFuture(existing);
+        }
+        var archConn = new ArchitectConnection();
+        try {
+            if (address.getFactory() != null) {
+                archConn.embeddedServer = startEmbedded(address);
+            }
+            archConn.channel = channelFactory.open(address.getHostname(), address.getPort(),
+                address.getChannel(), ArchitectServiceConfig.build(config.getTimeouts()));
+        } catch (IllegalArgumentException | IOException e) {
+            if (archConn.embeddedServer != null) {
+                archConn.embeddedServer.stop();
+            }
+            return CompletableFuture.failedFuture(e);
+        }
+        archConn.host = address.getHostname();
+        archConn.port = address.getPort();
+        Channel intercepted = ClientInterceptors.intercept(archConn.channel, archConn.calls);
+        archConn.nonblockingArchitectStub = ArchitectGrpc.newStub(intercepted);
+        archConn.blockingArchitectStub = ArchitectGrpc.newBlockingStub(intercepted);
+
+        // check connection to Architect server and get architectInfo string
+        var hello = new FutureStreamObserver<ArchitectInformation>();
+        architectStub(archConn).hello(None.getDefaultInstance(), hello);
+        return hello.future()
+            .thenApply(info -> {
+                archConn.architectInfo = info;
+                return addArchitect(archConn);
+            })
+            .whenComplete((connection, error) -> {
+                if (error != null) {
+                    archConn.channel.shutdownNow();
+                    if (archConn.embeddedServer != null) {
+                        archConn.embeddedServer.stop();
+                    }
+                }
+            });
+    }
+
+    /**
+     * Starts the in-process architect server for an architect that runs inside
+     * the broker.  Its architects are reached through the same stubs, pools and
+     * logging as those of a remote server.
+     */
+    private ArchitectServer startEmbedded(BrokerConfiguration.ArchitectServerAddress address)
+        throws IOException {
+        var server = new ArchitectServer(address.getHostname(),
+            ArchitectFactory.forClassName(address.getFactory()));
+        server.start();
+        return server;
+    }
+
+    private synchronized ArchitectConnection addArchitect(ArchitectConnection connection) {
+        var existing = findArchitect(connection.host, connection.port);
+        if (existing != null) {
+            // registered concurrently
+            connection.close();
+            return existing;
+        }
+        architectConnections.add(connection);
+        architectPools.computeIfAbsent(connection.architectInfo.getInfo(),
+            info -> new ArchitectPool(info, config.getArchitectPools().getStrategy()))
+            .add(connection);
+        logger.info("Connected to architect server at {}:{} ({})", connection.host,
+            connection.port, connection.architectInfo.getInfo());
+        return connection;
+    }
+
+    /**
+     * Removes an architect server from its pool, so that it gets no new games.
+     * Its running games continue, and the connection is closed once the last of
+     * them has ended.  Games that are still being started on the server, also as
+     * the second server of a hedged start, are counted as running, so the
+     * connection stays open until they have started or failed.  Returns false if
+     * the server is not connected.
+     */
+    synchronized boolean deregisterArchitect(String hostname, int port) {
+        var connection = findArchitect(hostname, port);
+        if (connection == null) {
+            return false;
+        }
+        connection.draining = true;
+        String info = connection.architectInfo.getInfo();
+        var pool = architectPools.get(info);
+        pool.remove(connection);
+        if (pool.getMembers().isEmpty()) {
+            architectPools.remove(info);
+        }
+        logger.info("Draining architect server at {}:{} ({} running or starting games)",
+            hostname, port, connection.runningGames.get());
+        closeIfDrained(connection);
+        return true;
+    }
+
+    /**
+     * Closes the connection to a draining server once no game runs or starts
+     * on it any more.
+     */
+    private synchronized void closeIfDrained(ArchitectConnection connection) {
+        if (connection.draining && connection.runningGames.get() == 0
+            && architectConnections.remove(connection)) {
+            connection.close();
+            logger.info("Disconnected from architect server at {}:{}", connection.host,
+                connection.port);
+        }
+    }
+
+    /**
+     * Returns the connection to the given architect server that is not draining,
+     * or null if there is none.
+     */
+    private ArchitectConnection findArchitect(String hostname, int port) {
+        for (var connection : architectConnections) {
+            if (!connection.draining && connection.host.equals(hostname)
+                && connection.port == port) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Watches the configuration file and registers and deregisters architect
+     * servers when they are added to or removed from it.
+     */
+    public void watchConfig(Path configFile) {
+        new ConfigWatcher(this, configFile).start();
+    }
+
     /**
      * Performs a shutdown of the underlying grpc server after terminating all games
      * currently running.
      */
     public void stop() {
         for (ArchitectConnection a: architectConnections) {
-            a.blockingArchitectStub.endAllGames(None.getDefaultInstance());
+            try {
+                a.blockingArchitectStub.endAllGames(None.getDefaultInstance());
+            } catch (StatusRuntimeException e) {
+                logger.warn("Could not end the games on architect server {}:{}", a.host, a.port,
+                    e);
+            }
         }
         if (server != null) {
             server.shutdown();
         }
+        for (ArchitectConnection a: architectConnections) {
+            a.close();
+        }
+        channelFactory.shutdown();
+        databaseExecutor.shutdown();
+        eventScheduler.shutdown();
+        // write all pending log records before the JVM exits
+        logWriter.close();
+        writeDataSource.close();
+        readDataSource.close();
     }
 
     /**
@@ -196,11 +415,28 @@ public class Broker {
         /**
          * Handles the start of a game. Creates a record for this game in the database
          * and returns a unique game ID to the client.
+         *
+         * <p>The game is created asynchronously: the game id is allocated on the
+         * database executor (usually without a query, see {@link IdAllocator}), the
+         * complete GAMES row goes through the {@link GameLogWriter} and the architect
+         * is called with the async stub, so the gRPC thread returns immediately.
+         * Allocation and architect call have a deadline; if one fails, the client
+         * gets an error and the game is marked as finished.</p>
          */
         @Override
         public void startGame(GameData request,
                               StreamObserver<WorldSelectMessage> responseObserver) {
+            // both selections only use in-memory counters; the selected server
+            // counts the game from now on, so concurrent starts spread out
             var scenario = selectScenario();
+            var architect = selectArchitect(scenario);
+            if (architect == null) {
+                responseObserver.onError(Status.UNAVAILABLE
+                    .withDescription("No architect server available")
+                    .asException());
+                return;
+            }
+            var timeouts = config.getTimeouts();
 
             GamesRecord rec = jooq.newRecord(Tables.GAMES);
             rec.setClientIp(request.getClientAddress());
@@ -208,68 +444,198 @@ public class Broker {
             rec.setScenario(scenario);
             rec.setStartTime(now());
             rec.setModified(now());
-            rec.store();
-
-            int id = rec.getId();
-            setGameStatus(id, GameStatus.Created);
-
-            var architect = selectArchitect(scenario);
-            runningGames.put(id, architect);
-
-            // Select new game
-            WorldSelectMessage worldSelectMessage = WorldSelectMessage
-                .newBuilder()
-                .setGameId(id)
-                .setName(scenario)
-                .build();
-            // tell architect about the new game
-            architect.blockingArchitectStub.startGame(worldSelectMessage);
-
             rec.setArchitectHostname(architect.host);
             rec.setArchitectPort(architect.port);
             rec.setArchitectInfo(architect.architectInfo.getInfo());
-            rec.store();
 
-            // tell client the game ID and selected world
-            responseObserver.onNext(worldSelectMessage);
-            responseObserver.onCompleted();
+            // set as soon as the game has an id, so a failed start can be cleaned up
+            var gameId = new AtomicInteger(-1);
+            // from then on, startOnArchitect releases the servers it does not use
+            var startedOnArchitect = new AtomicBoolean(false);
+            var worldSelectMessage = WorldSelectMessage.newBuilder().setName(scenario);
+            CompletableFuture
+                .supplyAsync(gameIds::next, databaseExecutor)
+                .orTimeout(timeouts.getDatabaseMs(), TimeUnit.MILLISECONDS)
+                .thenCompose(id -> {
+                    gameId.set(id);
+                    rec.setId(id);
+                    rec.setStatus(GameStatus.Created);
+                    logWriter.insert(rec);
+                    writeGameStatus(id, GameStatus.Created);
+
+                    // tell architect about the new game
+                    worldSelectMessage.setGameId(id);
+                    startedOnArchitect.set(true);
+                    return startOnArchitect(worldSelectMessage.build(), architect);
+                })
+                .thenAccept(winner -> {
+                    if (winner != architect) {
+                        // the hedged request to a second server answered first
+                        GamesRecord moved = new GamesRecord();
+                        moved.setId(gameId.get());
+                        moved.changed(Tables.GAMES.ID, false);
+                        moved.setArchitectHostname(winner.host);
+                        moved.setArchitectPort(winner.port);
+                        logWriter.update(moved);
+                    }
+                    var session = newSession(gameId.get(), scenario, winner);
+                    session.setStatus(GameStatus.Created);
+                    addSession(session);
+                })
+                .whenComplete((v, error) -> {
+                    if (error == null) {
+                        // tell client the game ID and selected world
+                        responseObserver.onNext(worldSelectMessage.build());
+                        responseObserver.onCompleted();
+                        return;
+                    }
+                    logger.error("Could not start game for {}", request.getPlayerName(), error);
+                    if (!startedOnArchitect.get()) {
+                        release(architect);
+                    }
+                    if (gameId.get() >= 0) {
+                        log(gameId.get(), error, GameLogsDirection.None);
+                        writeGameStatus(gameId.get(), GameStatus.Finished);
+                    }
+                    responseObserver.onError(Status.UNAVAILABLE
+                        .withDescription("Could not start game")
+                        .withCause(error)
+                        .asException());
+                });
+        }
+
+        /**
+         * Starts the game on the architect server.  If hedging is configured and
+         * the server has not answered in time, the game is also started on a
+         * second server of the same pool.  The future completes with the first
+         * server that answered successfully; a later answer from the other server
+         * ends the game there again.  It fails if all servers failed.
+         *
+         * <p>Every server that is tried holds a reservation for the game; the
+         * reservations of the servers that failed or lost are released, the one
+         * of the winner becomes the game's.</p>
+         */
+        private CompletableFuture<ArchitectConnection> startOnArchitect(
+            WorldSelectMessage message, ArchitectConnection primary) {
+            var winner = new CompletableFuture<ArchitectConnection>();
+            var attempts = new AtomicInteger(1);
+            startOn(primary, message, winner, attempts);
+            long hedgeMs = config.getTimeouts().getHedgeStartGameMs();
+            if (hedgeMs > 0) {
+                eventScheduler.schedule(() -> {
+                    if (winner.isDone()) {
+                        return;
+                    }
+                    var second = selectOtherArchitect(primary);
+                    if (second != null) {
+                        logger.info("Game {} hedged to architect server {}:{}",
+                            message.getGameId(), second.host, second.port);
+                        attempts.incrementAndGet();
+                        startOn(second, message, winner, attempts);
+                    }
+                }, hedgeMs, TimeUnit.MILLISECONDS);
+            }
+            return winner;
+        }
+
+        private void startOn(ArchitectConnection architect, WorldSelectMessage message,
+                             CompletableFuture<ArchitectConnection> winner,
+                             AtomicInteger attempts) {
+            var call = new FutureStreamObserver<None>();
+            architectStub(architect).startGame(message, call);
+            call.future().whenComplete((none, error) -> {
+                if (error == null) {
+                    if (!winner.complete(architect)) {
+                        var gameId = GameId.newBuilder().setId(message.getGameId()).build();
+                        architectStub(architect).endGame(gameId, new FutureStreamObserver<>());
+                        release(architect);
+                    }
+                } else {
+                    release(architect);
+                    if (attempts.decrementAndGet() == 0) {
+                        winner.completeExceptionally(error);
+                    }
+                }
+            });
         }
 
         @Override
         public void getMessageChannel(GameId request,
             StreamObserver<TextMessage> responseObserver) {
             int id = request.getId();
-            var so = new DelegatingStreamObserver(id, responseObserver, Broker.this);
-            var architect = getNonblockingArchitect(id);
-            if (architect != null) {
-                architect.getMessageChannel(request, so);
-            } else {
-                responseObserver.onError(new RuntimeException("Architect is null"));
+            var session = sessions.get(id);
+            if (session == null) {
+                responseObserver.onError(createNoSuchIdException(id));
+                return;
             }
+            var so = new DelegatingStreamObserver(id, responseObserver, Broker.this);
+            session.setMessageObserver(so);
+            session.architect.nonblockingArchitectStub.getMessageChannel(request, so);
+            so.start();
         }
 
         @Override
         public void getControlChannel(GameId request,
                                       StreamObserver<ProtectBlockMessage> responseObserver) {
             int id = request.getId();
-            var so = new DelegatingControlStreamObserver(id, responseObserver, Broker.this);
-            var architect = getNonblockingArchitect(id);
-            if (architect != null) {
-                architect.getControlChannel(request, so);
-            } else {
-                responseObserver.onError(new RuntimeException("Architect is null"));
+            var session = sessions.get(id);
+            if (session == null) {
+                responseObserver.onError(createNoSuchIdException(id));
+                return;
             }
+            var so = new DelegatingControlStreamObserver(id, responseObserver, Broker.this);
+            session.setControlObserver(so);
+            session.architect.nonblockingArchitectStub.getControlChannel(request, so);
+            so.start();
         }
 
         public void playerReady(GameId request, StreamObserver<None> responseObserver) {
             int id = request.getId();
-            setGameStatus(id, GameStatus.Running);
-            var architect = getBlockingArchitect(request.getId());
-            architect.playerReady(request);
+            var session = sessions.get(id);
+            if (session == null) {
+                responseObserver.onError(createNoSuchIdException(id));
+                return;
+            }
+            setGameStatus(session, GameStatus.Running);
+            try {
+                session.architect.blockingArchitectStub.playerReady(request);
+            } catch (StatusRuntimeException e) {
+                logger.error("Architect failed on playerReady for game {}", id, e);
+                responseObserver.onError(e);
+                return;
+            }
             responseObserver.onNext(None.getDefaultInstance());
             responseObserver.onCompleted();
         }
 
+        /**
+         * Forwards an event to the architect through the game's dispatcher and
+         * answers the Minecraft server once the architect has handled it (or the
+         * event was replaced by a newer status update).
+         */
+        private void forward(GameSession session, boolean status,
+                             Consumer<StreamObserver<None>> call,
+                             StreamObserver<None> responseObserver) {
+            if (!session.useEventPath(GameSession.EventPath.Single)) {
+                responseObserver.onError(Status.FAILED_PRECONDITION
+                    .withDescription("Game " + session.gameId + " gets its events in batches")
+                    .asException());
+                return;
+            }
+            session.dispatcher.submit(status, () -> {
+                var observer = new FutureStreamObserver<None>();
+                call.accept(observer);
+                return observer.future();
+            }, error -> {
+                if (error == null) {
+                    responseObserver.onNext(None.getDefaultInstance());
+                    responseObserver.onCompleted();
+                } else {
+                    responseObserver.onError(error);
+                }
+            });
+        }
+
         private StatusException createNoSuchIdException(int id) {
             return new StatusException(
                 Status
@@ -281,18 +647,25 @@ public class Broker {
         @Override
         public void endGame(GameId request, StreamObserver<None> responseObserver) {
             int id = request.getId();
-            if (! runningGames.containsKey(id)) {
+            var session = sessions.get(id);
+            if (session == null) {
                 responseObserver.onError(createNoSuchIdException(id));
                 return;
             }
             log(id, request, GameLogsDirection.PassToArchitect);
-            None v = getBlockingArchitect(id).endGame(request);
+            try {
+                session.architect.blockingArchitectStub.endGame(request);
+            } catch (StatusRuntimeException e) {
+                // the game ends for the broker anyway
+                logger.error("Architect failed on endGame for game {}", id, e);
+            }
 
-            responseObserver.onNext(v);
+            responseObserver.onNext(None.getDefaultInstance());
             responseObserver.onCompleted();
 
-            setGameStatus(id, GameStatus.Finished);
-            runningGames.remove(id);
+            setGameStatus(session, GameStatus.Finished);
+            removeSession(session);
+            logWriter.flush();
         }
 
         /**
@@ -304,15 +677,15 @@ public class Broker {
         public void handleStatusInformation(StatusMessage request,
                                             StreamObserver<None> responseObserver) {
             int id = request.getGameId();
-            if (! runningGames.containsKey(id)) {
+            var session = sessions.get(id);
+            if (session == null) {
                 responseObserver.onError(createNoSuchIdException(id));
                 return;
             }
-            log(id, request, GameLogsDirection.FromClient);
-            if (!questionnaires.containsKey(id)) {
-                getNonblockingArchitect(id).handleStatusInformation(
-                    request, responseObserver
-                );
+            logEvent(session, request);
+            if (!session.hasQuestionnaire()) {
+                forward(session, true, call -> architectStub(session.architect)
+                    .handleStatusInformation(request, call), responseObserver);
             } else {
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
@@ -323,13 +696,15 @@ public class Broker {
         public void handleBlockPlaced(BlockPlacedMessage request,
                                       StreamObserver<None> responseObserver) {
             int id = request.getGameId();
-            if (! runningGames.containsKey(id)) {
+            var session = sessions.get(id);
+            if (session == null) {
                 responseObserver.onError(createNoSuchIdException(id));
                 return;
             }
-            log(id, request, GameLogsDirection.FromClient);
-            if (!questionnaires.containsKey(id)) {
-                getNonblockingArchitect(id).handleBlockPlaced(request, responseObserver);
+            logEvent(session, request);
+            if (!session.hasQuestionnaire()) {
+                forward(session, false, call -> architectStub(session.architect)
+                    .handleBlockPlaced(request, call), responseObserver);
             } else {
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
@@ -340,20 +715,48 @@ public class Broker {
         public void handleBlockDestroyed(BlockDestroyedMessage request,
                                          StreamObserver<None> responseObserver) {
             int id = request.getGameId();
-            if (! runningGames.containsKey(id)) {
+            var session = sessions.get(id);
+            if (session == null) {
                 responseObserver.onError(createNoSuchIdException(id));
                 return;
             }
-            log(id, request, GameLogsDirection.FromClient);
-            if (!questionnaires.containsKey(id)) {
-                getNonblockingArchitect(id).handleBlockDestroyed(
-                    request, responseObserver);
+            logEvent(session, request);
+            if (!session.hasQuestionnaire()) {
+                forward(session, false, call -> architectStub(session.architect)
+                    .handleBlockDestroyed(request, call), responseObserver);
             } else {
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
             }
         }
 
+        /**
+         * Handles a stream of status, block placed and block destroyed events,
+         * see {@link GameEventRelay}.
+         */
+        @Override
+        public StreamObserver<GameEvent> gameEvents(
+            StreamObserver<GameEventAck> responseObserver) {
+            return new GameEventRelay(Broker.this, responseObserver);
+        }
+
+        /**
+         * Handles the events of a whole batch, see {@link EventBatchProcessor}.
+         */
+        @Override
+        public void handleEvents(EventBatch request,
+                                 StreamObserver<EventBatchResult> responseObserver) {
+            new EventBatchProcessor(Broker.this, request).process()
+                .whenComplete((result, error) -> {
+                    if (error == null) {
+                        responseObserver.onNext(result);
+                        responseObserver.onCompleted();
+                    } else {
+                        responseObserver.onError(error);
+                    }
+                });
+        }
+
         @Override
         public void handleMinecraftServerError(MinecraftServerError request,
                                                StreamObserver<None> responseObserver) {
@@ -379,56 +782,160 @@ public class Broker {
                                       StreamObserver<None> responseObserver) {
             int id = request.getGameId();
             log(id, request, GameLogsDirection.FromClient);
-            if (!questionnaires.containsKey(id)) {
+            var session = sessions.get(id);
+            var questionnaire = session == null ? null : session.getQuestionnaire();
+            if (questionnaire == null) {
                 // ignore text messages if no questionnaire is running
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
                 return;
             }
             try {
-                questionnaires.get(id).onNext(request);
+                questionnaire.onNext(request);
                 responseObserver.onNext(None.getDefaultInstance());
                 responseObserver.onCompleted();
             } catch (Exception e) {
                 responseObserver.onError(e);
             }
         }
+    }
 
-        /**
-         * returns the correct architect stub for the given game id.
-         */
-        private ArchitectBlockingStub getBlockingArchitect(int id) {
-            return runningGames.get(id).blockingArchitectStub;
+    /**
+     * Registers and deregisters architect servers while the broker is running.
+     */
+    private class BrokerAdminImpl extends BrokerAdminGrpc.BrokerAdminImplBase {
+        @Override
+        public void registerArchitect(ArchitectAddress request,
+                                      StreamObserver<ArchitectInformation> responseObserver) {
+            connectArchitect(new BrokerConfiguration.ArchitectServerAddress(
+                request.getHostname(), request.getPort()))
+                .whenComplete((connection, error) -> {
+                    if (error == null) {
+                        responseObserver.onNext(connection.architectInfo);
+                        responseObserver.onCompleted();
+                    } else {
+                        responseObserver.onError(Status.UNAVAILABLE
+                            .withDescription("Could not connect to architect server at "
+                                + request.getHostname() + ":" + request.getPort())
+                            .withCause(error)
+                            .asException());
+                    }
+                });
         }
 
-        /**
-         * returns the correct architect stub for the given game id.
-         */
-        private ArchitectGrpc.ArchitectStub getNonblockingArchitect(int id) {
-            return runningGames.get(id).nonblockingArchitectStub;
+        @Override
+        public void deregisterArchitect(ArchitectAddress request,
+                                        StreamObserver<None> responseObserver) {
+            if (Broker.this.deregisterArchitect(request.getHostname(), request.getPort())) {
+                responseObserver.onNext(None.getDefaultInstance());
+                responseObserver.onCompleted();
+            } else {
+                responseObserver.onError(Status.NOT_FOUND
+                    .withDescription("No architect server at "
+                        + request.getHostname() + ":" + request.getPort())
+                    .asException());
+            }
         }
     }
 
+    private GameSession newSession(int id, String scenario, ArchitectConnection architect) {
+        var coalescing = config.getCoalescing();
+        return new GameSession(id, scenario, architect,
+            new GameEventDispatcher(coalescing, eventScheduler),
+            new StatusLogFilter(coalescing.getStatusLogging(), coalescing.getKeyframeIntervalMs()));
+    }
+
+    /**
+     * Adds the session of a game that was started.  The game was already counted
+     * on its architect server when the server was selected.
+     */
+    private void addSession(GameSession session) {
+        sessions.put(session.gameId, session);
+    }
+
+    private void removeSession(GameSession session) {
+        if (sessions.remove(session.gameId, session)) {
+            release(session.architect);
+        }
+    }
+
+    // counts a game on the server from its selection on; guarded by this
+    private static ArchitectConnection reserve(ArchitectConnection architect) {
+        if (architect != null) {
+            architect.runningGames.incrementAndGet();
+        }
+        return architect;
+    }
+
+    /**
+     * Stops counting a game on the server, because the game ended or could not
+     * be started there.
+     */
+    private void release(ArchitectConnection architect) {
+        architect.runningGames.decrementAndGet();
+        if (architect.draining) {
+            closeIfDrained(architect);
+        }
+    }
+
+    /**
+     * Logs an event from the Minecraft server.  Status updates are only logged
+     * if the game's {@link StatusLogFilter} lets them through.
+     */
+    void logEvent(GameSession session, MessageOrBuilder message) {
+        GameLogsRecord rec = eventRecord(session, message);
+        if (rec != null) {
+            logWriter.append(rec);
+        }
+    }
+
+    /**
+     * Creates the GAME_LOGS record for an event from the Minecraft server, or returns
+     * null if the event should not be logged.
+     */
+    GameLogsRecord eventRecord(GameSession session, MessageOrBuilder message) {
+        if (message instanceof StatusMessage
+            && !session.statusLogFilter.shouldLog((StatusMessage) message)) {
+            return null;
+        }
+        return messageRecord(session.gameId, message, GameLogsDirection.FromClient);
+    }
+
+    /**
+     * Returns the async stub of an architect.  Its unary calls get their deadline
+     * and retry policy from the {@link ArchitectServiceConfig} of the channel.
+     */
+    ArchitectGrpc.ArchitectStub architectStub(ArchitectConnection architect) {
+        return architect.nonblockingArchitectStub;
+    }
+
+    GameLogWriter getLogWriter() {
+        return logWriter;
+    }
+
     /**
      * Called whenever the status of a game changes, e.g. to started or completed.
      * Logs the change into the database.
      */
-    private void setGameStatus(int gameid, GameStatus status) {
+    private void setGameStatus(GameSession session, GameStatus status) {
+        session.setStatus(status);
+        writeGameStatus(session.gameId, status);
+    }
+
+    private void writeGameStatus(int gameid, GameStatus status) {
         // update status in games table
-        jooq.update(Tables.GAMES)
-            .set(Tables.GAMES.STATUS, status)
-            .set(Tables.GAMES.MODIFIED, now())
-            .where(Tables.GAMES.ID.equal(gameid))
-            .execute();
+        GamesRecord rec = new GamesRecord();
+        rec.setId(gameid);
+        rec.changed(Tables.GAMES.ID, false);
+        rec.setStatus(status);
+        rec.setModified(now());
+        // queued behind the insert of the row, see GameLogWriter
+        logWriter.update(rec);
 
         // record updating of status in game_logs table
-        GameLogsRecord glr = jooq.newRecord(Tables.GAME_LOGS);
-        glr.setGameid(gameid);
-        glr.setDirection(GameLogsDirection.None);
-        glr.setMessageType(MESSAGE_TYPE_LOG);
+        GameLogsRecord glr = newLogRecord(gameid, GameLogsDirection.None, MESSAGE_TYPE_LOG);
         glr.setMessage(String.format("Status of game %d changed to %s", gameid, status.toString()));
-        glr.setTimestamp(now());
-        glr.store();
+        logWriter.append(glr);
     }
 
     /**
@@ -543,74 +1050,34 @@ public class Broker {
      * Selects a scenario for the next game.
      */
     private String selectScenario() {
-        // scenarios in ascending order
-        // by number of games started with them
-        List<String> scenariosByNumExperiments =
-            jooq.select(Tables.GAMES.SCENARIO)
-                .from(Tables.GAMES)
-                .groupBy(Tables.GAMES.SCENARIO)
-                .orderBy(DSL.count())
-                .fetch(Tables.GAMES.SCENARIO)
-            .stream()
-            .filter(this.scenarios::contains)
-            .collect(Collectors.toList());
-
-        var neverPlayed = this.scenarios
-            .stream()
-            .filter((x) -> !scenariosByNumExperiments.contains(x))
-            .collect(Collectors.toList());
-
-        String scenarioToUse;
-        if (!neverPlayed.isEmpty()) {
-            scenarioToUse = neverPlayed.get(0);
-        } else {
-            scenarioToUse = scenariosByNumExperiments.get(0);
-        }
-        return scenarioToUse;
-    }
-
-    private ArchitectConnection selectArchitect(String scenario) {
-        Set<String> currentArchitects = architectConnections
-            .stream()
-            .map((x) -> x.architectInfo.getInfo())
-            .collect(Collectors.toSet());
-
-        // architect info in ascending order
-        // by number of games started with them
-        List<String> architectsByNumExperiments =
-            jooq.select(Tables.GAMES.ARCHITECT_INFO)
-                .from(Tables.GAMES)
-                .where(Tables.GAMES.SCENARIO.eq(scenario))
-                .groupBy(Tables.GAMES.ARCHITECT_INFO)
-                .orderBy(DSL.count())
-                .fetch(Tables.GAMES.ARCHITECT_INFO)
-                .stream()
-                .filter(currentArchitects::contains)
-                .collect(Collectors.toList());
-
-        logger.debug("architectsByNumExperiments: " + architectsByNumExperiments);
+        return balancer.selectScenario(scenarios);
+    }
 
-        var neverPlayed = currentArchitects.stream()
-            .filter((x) -> !architectsByNumExperiments.contains(x))
-            .collect(Collectors.toList());
-        logger.debug("never played: " + neverPlayed);
+    /**
+     * Returns another server from the pool of the given architect server for
+     * a hedged request, or null if there is none.  The game is counted on the
+     * returned server until it is released.
+     */
+    private synchronized ArchitectConnection selectOtherArchitect(ArchitectConnection architect) {
+        var pool = architectPools.get(architect.architectInfo.getInfo());
+        return pool == null ? null : reserve(pool.selectOther(architect));
+    }
 
-        String architectToUse;
-        if (!neverPlayed.isEmpty()) {
-            architectToUse = neverPlayed.get(0);
-        } else {
-            architectToUse = architectsByNumExperiments.get(0);
+    /**
+     * Selects the architect for the next game: the {@link GameBalancer} picks an
+     * architect, and the architect's {@link ArchitectPool} picks the server.
+     * The game is counted on the server right away, so that the next selection
+     * sees it even though the game has not started yet; it must be released if
+     * the game does not start.  Returns null if no architect server is registered.
+     */
+    private synchronized ArchitectConnection selectArchitect(String scenario) {
+        if (architectPools.isEmpty()) {
+            return null;
         }
-
+        List<String> currentArchitects = new ArrayList<>(architectPools.keySet());
+        String architectToUse = balancer.selectArchitect(scenario, currentArchitects);
         logger.debug("architectToUse: " + architectToUse);
-
-        return architectConnections.stream()
-            .filter((x) ->
-                x.architectInfo
-                    .getInfo()
-                    .equals(architectToUse))
-                .findFirst()
-                .get();
+        return reserve(architectPools.get(architectToUse).select());
     }
 
     public static LocalDateTime now() {
@@ -618,18 +1085,33 @@ public class Broker {
     }
 
     /**
-     * Logs game information to the database.
+     * Logs game information to the database.  The record is written asynchronously
+     * by the {@link GameLogWriter}.
      */
     void log(int gameid, MessageOrBuilder message, GameLogsDirection direction) {
-        String messageStr = "";
-        try {
-            messageStr = com.google.protobuf.util.JsonFormat.printer()
-                .includingDefaultValueFields()
-                .print(message);
-        } catch (InvalidProtocolBufferException e) {
-            logger.error("could convert message to json: " + message);
+        logWriter.append(messageRecord(gameid, message, direction));
+    }
+
+    /**
+     * Creates the GAME_LOGS record for a protobuf message.
+     */
+    private GameLogsRecord messageRecord(int gameid, MessageOrBuilder message,
+                                         GameLogsDirection direction) {
+        GameLogsRecord rec = newLogRecord(gameid, direction, message.getClass().getSimpleName());
+        if (config.getLogWriter().getFormat() == GameLogCodec.Format.Binary) {
+            // JSON is only rendered when someone looks at the log
+            rec.setPayload(GameLogCodec.toBytes(message));
+        } else {
+            String messageStr = "";
+            try {
+                messageStr = GameLogCodec.toJson(message);
+            } catch (InvalidProtocolBufferException e) {
+                logger.error("could convert message to json: " + message);
+            }
+            rec.setMessage(messageStr);
         }
-        log(gameid, messageStr, message.getClass().getSimpleName(), direction);
+        GameLogColumns.fill(rec, message);
+        return rec;
     }
 
     void log(int gameid,
@@ -637,13 +1119,9 @@ public class Broker {
         String messageType,
         GameLogsDirection direction) {
 
-        GameLogsRecord rec = jooq.newRecord(Tables.GAME_LOGS);
-        rec.setGameid(gameid);
-        rec.setDirection(direction);
-        rec.setMessageType(messageType);
+        GameLogsRecord rec = newLogRecord(gameid, direction, messageType);
         rec.setMessage(messageStr);
-        rec.setTimestamp(now());
-        rec.store();
+        logWriter.append(rec);
     }
 
     /**
@@ -652,13 +1130,25 @@ public class Broker {
     void log(int gameid, Throwable message, GameLogsDirection direction) {
         String messageStr = message.toString();
 
+        GameLogsRecord rec = newLogRecord(gameid, direction, MESSAGE_TYPE_ERROR);
+        rec.setMessage(messageStr);
+        logWriter.append(rec);
+    }
+
+    /**
+     * Creates a GAME_LOGS record with all fields set except for the message
+     * and the structured columns.
+     */
+    private GameLogsRecord newLogRecord(int gameid,
+                                        GameLogsDirection direction,
+                                        String messageType) {
         GameLogsRecord rec = jooq.newRecord(Tables.GAME_LOGS);
         rec.setGameid(gameid);
         rec.setDirection(direction);
-        rec.setMessage(messageStr);
-        rec.setMessageType(MESSAGE_TYPE_ERROR);
+        rec.setMessageType(messageType);
         rec.setTimestamp(now());
-        rec.store();
+        rec.setTypedColumns(true);
+        return rec;
     }
 
     /**
@@ -671,11 +1161,12 @@ public class Broker {
 
         Broker server = new Broker(config);
         server.start();
+        server.watchConfig(Paths.get("broker-config.yaml"));
         server.blockUntilShutdown();
     }
 
 
-    private DSLContext setupDatabase() {
+    private void setupDatabase() {
         // special case:  If no database was configured at all, use an in-memory db (for testing)
         if (config.getDatabase() == null) {
             logger.warn("no database configured, will use temporary in-memory database");
@@ -695,33 +1186,58 @@ public class Broker {
             config.setDatabase(db);
         }
 
+        var dbConfig = config.getDatabase();
         try {
-            var url = config.getDatabase().getUrl();
-            var user = config.getDatabase().getUsername();
-            var password = config.getDatabase().getPassword();
+            writeDataSource = createDataSource("broker-write", dbConfig.getWritePoolSize());
+            readDataSource = createDataSource("broker-read", dbConfig.getReadPoolSize());
 
             // First, migrate to newest version
             Flyway.configure()
-                .dataSource(url, user, password)
+                .dataSource(writeDataSource)
                 .load()
                 .migrate();
 
-            // second, connect to database
-            Connection conn = DriverManager.getConnection(url, user, password);
-            DSLContext ret = DSL.using(
-                conn,
-                SQLDialect.valueOf(config.getDatabase().getSqlDialect())
-            );
+            // second, wrap the connection pools
+            var dialect = SQLDialect.valueOf(dbConfig.getSqlDialect());
+            jooq = DSL.using(writeDataSource, dialect);
+            readJooq = DSL.using(readDataSource, dialect);
             logger.info("Connected to {} database at {}.",
-                config.getDatabase().getSqlDialect(),
-                config.getDatabase().getUrl());
-            return ret;
-        } catch (SQLException e) {
+                dbConfig.getSqlDialect(),
+                dbConfig.getUrl());
+            return;
+        } catch (HikariPool.PoolInitializationException | FlywayException e) {
             e.printStackTrace();
         }
         logger.error("Could not connect to database, exiting");
         System.exit(1);
-        return null;
+    }
+
+    private static ExecutorService createDatabaseExecutor(int threads) {
+        var threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "broker-db-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a connection pool for the configured database.  Idle connections are
+     * validated by the pool, so we don't need to keep them alive ourselves.
+     */
+    private HikariDataSource createDataSource(String name, int poolSize) {
+        var dbConfig = config.getDatabase();
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName(name);
+        hikariConfig.setJdbcUrl(dbConfig.getUrl());
+        hikariConfig.setUsername(dbConfig.getUsername());
+        hikariConfig.setPassword(dbConfig.getPassword());
+        hikariConfig.setMaximumPoolSize(poolSize);
+        hikariConfig.setMinimumIdle(Math.min(2, poolSize));
+        hikariConfig.setConnectionTimeout(dbConfig.getConnectionTimeoutMs());
+        hikariConfig.setKeepaliveTime(dbConfig.getKeepaliveMs());
+        hikariConfig.setMaxLifetime(dbConfig.getMaxLifetimeMs());
+        return new HikariDataSource(hikariConfig);
     }
 
     /**
@@ -732,11 +1248,16 @@ public class Broker {
      */
     public void startQuestionnaire(int gameId,
         DelegatingStreamObserver streamObserver) {
+        var session = sessions.get(gameId);
+        if (session == null) {
+            logger.warn("Game {} ended before its questionnaire could start", gameId);
+            return;
+        }
         if (config.getUseInternalQuestionnaire()) {
             logger.info("Starting questionnaire for game {}", gameId);
-            Questionnaire questionnaire = createQuestionnaire(gameId, streamObserver);
+            Questionnaire questionnaire = createQuestionnaire(session, streamObserver);
             questionnaire.start();
-            questionnaires.put(gameId, questionnaire);
+            session.setQuestionnaire(questionnaire);
         } else {
             // We put in a mock questionnaire as null values
             // are not allowed. Note that this one is not start()ed.
@@ -745,14 +1266,14 @@ public class Broker {
                 new ArrayList<>(),
                 streamObserver, jooq
             );
-            questionnaires.put(gameId, questionnaire);
+            session.setQuestionnaire(questionnaire);
             new Thread(() -> {
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
-                streamObserver.onNext(TextMessage.newBuilder()
+                streamObserver.sendToClient(TextMessage.newBuilder()
                     .setGameId(gameId)
                     .setText(
                         "Thank you for your time! you can hang around or disconnect now.")
@@ -764,20 +1285,13 @@ public class Broker {
 
     /**
      * returns a questionnaire for a given game.
-     * @param gameId Used to find the correct scenario
+     * @param session Used to find the correct scenario
      * @param streamObserver The stream used to send questions to the player.
      * @return a Questionnaire depending on the scenario
      */
-    private Questionnaire createQuestionnaire(int gameId, DelegatingStreamObserver streamObserver) {
-        // Find current scenario
-        Result<Record> records = jooq.select()
-            .from(Tables.GAMES)
-            .where(Tables.GAMES.ID.eq(gameId))
-            .fetch();
-        List<String> scenarios = records.getValues(Tables.GAMES.SCENARIO);
-
-        // Get matching questionnaire
-        List<Question> questions = questionTemplates.get(scenarios.get(0));
-        return new Questionnaire(gameId, questions, streamObserver, jooq);
+    private Questionnaire createQuestionnaire(GameSession session,
+                                              DelegatingStreamObserver streamObserver) {
+        List<Question> questions = questionTemplates.get(session.scenario);
+        return new Questionnaire(session.gameId, questions, streamObserver, jooq);
     }
 }
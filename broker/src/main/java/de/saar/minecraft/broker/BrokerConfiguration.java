@@ -1,8 +1,12 @@
 package de.saar.minecraft.broker;
 
+import de.saar.minecraft.util.Util;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.yaml.snakeyaml.TypeDescription;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
@@ -14,6 +18,12 @@ public class BrokerConfiguration {
     private int httpPort;
     private List<String> scenarios = new ArrayList<>();
     private boolean useInternalQuestionnaire = true;
+    private LogWriterConfiguration logWriter = new LogWriterConfiguration();
+    private BalancingConfiguration balancing = new BalancingConfiguration();
+    private TimeoutConfiguration timeouts = new TimeoutConfiguration();
+    private CoalescingConfiguration coalescing = new CoalescingConfiguration();
+    private ArchitectPoolConfiguration architectPools = new ArchitectPoolConfiguration();
+    private LoadConfiguration load = new LoadConfiguration();
 
     /**
      * Generates a BrokerConfiguration from the yaml data provided by the reader.
@@ -79,11 +89,419 @@ public class BrokerConfiguration {
         this.useInternalQuestionnaire = useInternalQuestionnaire;
     }
 
+    public LogWriterConfiguration getLogWriter() {
+        return logWriter;
+    }
+
+    public void setLogWriter(LogWriterConfiguration logWriter) {
+        this.logWriter = logWriter;
+    }
+
+    public BalancingConfiguration getBalancing() {
+        return balancing;
+    }
+
+    public void setBalancing(BalancingConfiguration balancing) {
+        this.balancing = balancing;
+    }
+
+    public TimeoutConfiguration getTimeouts() {
+        return timeouts;
+    }
+
+    public void setTimeouts(TimeoutConfiguration timeouts) {
+        this.timeouts = timeouts;
+    }
+
+    public CoalescingConfiguration getCoalescing() {
+        return coalescing;
+    }
+
+    public void setCoalescing(CoalescingConfiguration coalescing) {
+        this.coalescing = coalescing;
+    }
+
+    public ArchitectPoolConfiguration getArchitectPools() {
+        return architectPools;
+    }
+
+    public void setArchitectPools(ArchitectPoolConfiguration architectPools) {
+        this.architectPools = architectPools;
+    }
+
+    public LoadConfiguration getLoad() {
+        return load;
+    }
+
+    public void setLoad(LoadConfiguration load) {
+        this.load = load;
+    }
+
+    /**
+     * Configuration of the {@link ArchitectLoadMonitor}.  An architect server is
+     * saturated if it reaches one of the limits; limits of 0 are not checked.
+     */
+    public static class LoadConfiguration {
+        private long pollIntervalMs = 1000;
+        private int maxRunningArchitects = 0;
+        private int maxQueuedWork = 0;
+        private double maxLatencyP99Ms = 0;
+        private double maxHeapFraction = 0.95;
+
+        public long getPollIntervalMs() {
+            return pollIntervalMs;
+        }
+
+        public void setPollIntervalMs(long pollIntervalMs) {
+            this.pollIntervalMs = pollIntervalMs;
+        }
+
+        public int getMaxRunningArchitects() {
+            return maxRunningArchitects;
+        }
+
+        public void setMaxRunningArchitects(int maxRunningArchitects) {
+            this.maxRunningArchitects = maxRunningArchitects;
+        }
+
+        public int getMaxQueuedWork() {
+            return maxQueuedWork;
+        }
+
+        public void setMaxQueuedWork(int maxQueuedWork) {
+            this.maxQueuedWork = maxQueuedWork;
+        }
+
+        public double getMaxLatencyP99Ms() {
+            return maxLatencyP99Ms;
+        }
+
+        public void setMaxLatencyP99Ms(double maxLatencyP99Ms) {
+            this.maxLatencyP99Ms = maxLatencyP99Ms;
+        }
+
+        public double getMaxHeapFraction() {
+            return maxHeapFraction;
+        }
+
+        public void setMaxHeapFraction(double maxHeapFraction) {
+            this.maxHeapFraction = maxHeapFraction;
+        }
+    }
+
+    /**
+     * Configuration of the {@link ArchitectPool}s.
+     */
+    public static class ArchitectPoolConfiguration {
+        private ArchitectPool.Strategy strategy = ArchitectPool.Strategy.LeastGames;
+
+        public ArchitectPool.Strategy getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(ArchitectPool.Strategy strategy) {
+            this.strategy = strategy;
+        }
+    }
+
+    /**
+     * Configuration of the {@link GameEventDispatcher} and {@link StatusLogFilter}
+     * of each game.
+     */
+    public static class CoalescingConfiguration {
+        private boolean enabled = true;
+        private double maxStatusRate = 0;
+        private StatusLogFilter.Mode statusLogging = StatusLogFilter.Mode.All;
+        private long keyframeIntervalMs = 1000;
+        private int maxQueued = 1024;
+
+        /**
+         * If true, events are forwarded to the architect one at a time and
+         * waiting status updates are replaced by newer ones.
+         */
+        public boolean getEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Maximum number of status updates per second forwarded for each game,
+         * 0 for no limit.
+         */
+        public double getMaxStatusRate() {
+            return maxStatusRate;
+        }
+
+        public void setMaxStatusRate(double maxStatusRate) {
+            this.maxStatusRate = maxStatusRate;
+        }
+
+        public StatusLogFilter.Mode getStatusLogging() {
+            return statusLogging;
+        }
+
+        public void setStatusLogging(StatusLogFilter.Mode statusLogging) {
+            this.statusLogging = statusLogging;
+        }
+
+        public long getKeyframeIntervalMs() {
+            return keyframeIntervalMs;
+        }
+
+        public void setKeyframeIntervalMs(long keyframeIntervalMs) {
+            this.keyframeIntervalMs = keyframeIntervalMs;
+        }
+
+        /**
+         * Maximum number of events of one game that wait to be forwarded.  When
+         * it is reached, the oldest waiting status update is dropped, and if
+         * there is none, the new event is rejected.
+         */
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public void setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+        }
+    }
+
+    /**
+     * Deadlines for the calls the broker makes while starting a game.
+     */
+    public static class TimeoutConfiguration {
+        private long architectMs = 10000;
+        private Map<String, Number> architectRpcMs = new HashMap<>();
+        private int maxAttempts = 3;
+        private long retryBackoffMs = 100;
+        private long hedgeStartGameMs = 0;
+        private long databaseMs = 5000;
+
+        public long getArchitectMs() {
+            return architectMs;
+        }
+
+        public void setArchitectMs(long architectMs) {
+            this.architectMs = architectMs;
+        }
+
+        /**
+         * Deadlines for single Architect RPCs by method name (e.g. EndGame), in
+         * milliseconds.  RPCs without an entry use architectMs.
+         */
+        public Map<String, Number> getArchitectRpcMs() {
+            return architectRpcMs;
+        }
+
+        public void setArchitectRpcMs(Map<String, Number> architectRpcMs) {
+            this.architectRpcMs = architectRpcMs;
+        }
+
+        /**
+         * How often idempotent Architect RPCs are tried if the architect server
+         * is unavailable; 1 disables retries.
+         */
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public long getRetryBackoffMs() {
+            return retryBackoffMs;
+        }
+
+        public void setRetryBackoffMs(long retryBackoffMs) {
+            this.retryBackoffMs = retryBackoffMs;
+        }
+
+        /**
+         * If an architect server has not answered StartGame after this many
+         * milliseconds, the game is also started on a second server of the same
+         * pool and the first server to answer gets the game; 0 disables hedging.
+         */
+        public long getHedgeStartGameMs() {
+            return hedgeStartGameMs;
+        }
+
+        public void setHedgeStartGameMs(long hedgeStartGameMs) {
+            this.hedgeStartGameMs = hedgeStartGameMs;
+        }
+
+        public long getDatabaseMs() {
+            return databaseMs;
+        }
+
+        public void setDatabaseMs(long databaseMs) {
+            this.databaseMs = databaseMs;
+        }
+    }
+
+    /**
+     * Configuration of the {@link GameBalancer}.  Weights are only used by
+     * the Weighted strategy; architects are identified by their architect info.
+     */
+    public static class BalancingConfiguration {
+        private GameBalancer.Strategy strategy = GameBalancer.Strategy.LeastPlayed;
+        private Map<String, Number> scenarioWeights = new HashMap<>();
+        private Map<String, Number> architectWeights = new HashMap<>();
+
+        public GameBalancer.Strategy getStrategy() {
+            return strategy;
+        }
+
+        public void setStrategy(GameBalancer.Strategy strategy) {
+            this.strategy = strategy;
+        }
+
+        public Map<String, Number> getScenarioWeights() {
+            return scenarioWeights;
+        }
+
+        public void setScenarioWeights(Map<String, Number> scenarioWeights) {
+            this.scenarioWeights = scenarioWeights;
+        }
+
+        public Map<String, Number> getArchitectWeights() {
+            return architectWeights;
+        }
+
+        public void setArchitectWeights(Map<String, Number> architectWeights) {
+            this.architectWeights = architectWeights;
+        }
+    }
+
+    /**
+     * Configuration of the background writer for the GAME_LOGS table.
+     */
+    public static class LogWriterConfiguration {
+        private int batchSize = 100;
+        private long flushIntervalMs = 200;
+        private int queueCapacity = 10000;
+        private GameLogWriter.OverflowPolicy overflowPolicy = GameLogWriter.OverflowPolicy.Block;
+        private GameLogCodec.Format format = GameLogCodec.Format.Json;
+        private boolean convertExistingLogs = false;
+        private JournalConfiguration journal = new JournalConfiguration();
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public long getFlushIntervalMs() {
+            return flushIntervalMs;
+        }
+
+        public void setFlushIntervalMs(long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public GameLogWriter.OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(GameLogWriter.OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        /**
+         * Storage format for logged protobuf messages.
+         */
+        public GameLogCodec.Format getFormat() {
+            return format;
+        }
+
+        public void setFormat(GameLogCodec.Format format) {
+            this.format = format;
+        }
+
+        /**
+         * If true and the format is Binary, existing JSON log rows are converted
+         * to binary by the backfill job.
+         */
+        public boolean getConvertExistingLogs() {
+            return convertExistingLogs;
+        }
+
+        public void setConvertExistingLogs(boolean convertExistingLogs) {
+            this.convertExistingLogs = convertExistingLogs;
+        }
+
+        public JournalConfiguration getJournal() {
+            return journal;
+        }
+
+        public void setJournal(JournalConfiguration journal) {
+            this.journal = journal;
+        }
+    }
+
+    /**
+     * Configuration of the local {@link EventJournal} in front of the database.
+     * The journal is disabled unless a directory is given.
+     */
+    public static class JournalConfiguration {
+        private String directory = null;
+        private int segmentSizeBytes = 64 * 1024 * 1024;
+        private boolean forceOnAppend = false;
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getSegmentSizeBytes() {
+            return segmentSizeBytes;
+        }
+
+        public void setSegmentSizeBytes(int segmentSizeBytes) {
+            this.segmentSizeBytes = segmentSizeBytes;
+        }
+
+        /**
+         * If true, every event is forced to disk before it is acknowledged, so it
+         * also survives a crash of the machine and not only of the broker.
+         */
+        public boolean getForceOnAppend() {
+            return forceOnAppend;
+        }
+
+        public void setForceOnAppend(boolean forceOnAppend) {
+            this.forceOnAppend = forceOnAppend;
+        }
+    }
+
     public static class DatabaseAddress {
         private String url;
         private String username;
         private String password;
         private String sqlDialect = "MYSQL";
+        private int writePoolSize = 4;
+        private int readPoolSize = 4;
+        private long connectionTimeoutMs = 30000;
+        private long keepaliveMs = 300000;
+        private long maxLifetimeMs = 1800000;
+        private int backfillBatchSize = 500;
+        private int idBlockSize = 50;
 
         public String getUrl() {
             return url;
@@ -116,13 +534,109 @@ public class BrokerConfiguration {
         public void setSqlDialect(String sqlDialect) {
             this.sqlDialect = sqlDialect;
         }
+
+        /**
+         * Maximum number of connections used for game logging and game bookkeeping.
+         */
+        public int getWritePoolSize() {
+            return writePoolSize;
+        }
+
+        public void setWritePoolSize(int writePoolSize) {
+            this.writePoolSize = writePoolSize;
+        }
+
+        /**
+         * Maximum number of connections used by the HTTP server and the statistics.
+         */
+        public int getReadPoolSize() {
+            return readPoolSize;
+        }
+
+        public void setReadPoolSize(int readPoolSize) {
+            this.readPoolSize = readPoolSize;
+        }
+
+        public long getConnectionTimeoutMs() {
+            return connectionTimeoutMs;
+        }
+
+        public void setConnectionTimeoutMs(long connectionTimeoutMs) {
+            this.connectionTimeoutMs = connectionTimeoutMs;
+        }
+
+        /**
+         * Interval in which idle connections are validated by the pool.
+         */
+        public long getKeepaliveMs() {
+            return keepaliveMs;
+        }
+
+        public void setKeepaliveMs(long keepaliveMs) {
+            this.keepaliveMs = keepaliveMs;
+        }
+
+        public long getMaxLifetimeMs() {
+            return maxLifetimeMs;
+        }
+
+        public void setMaxLifetimeMs(long maxLifetimeMs) {
+            this.maxLifetimeMs = maxLifetimeMs;
+        }
+
+        /**
+         * Number of old GAME_LOGS rows the backfill job processes per batch.
+         * 0 disables the backfill.
+         */
+        public int getBackfillBatchSize() {
+            return backfillBatchSize;
+        }
+
+        public void setBackfillBatchSize(int backfillBatchSize) {
+            this.backfillBatchSize = backfillBatchSize;
+        }
+
+        /**
+         * Number of game ids a broker reserves at once.  Unused ids of a
+         * block are skipped when the broker stops.
+         */
+        public int getIdBlockSize() {
+            return idBlockSize;
+        }
+
+        public void setIdBlockSize(int idBlockSize) {
+            this.idBlockSize = idBlockSize;
+        }
     }
 
+    /**
+     * The address of an architect server.  A hostname of the form unix:///path
+     * is a Unix domain socket; the port is then ignored.
+     *
+     * <p>Instead of an address, a factory can be given: the class name of an
+     * ArchitectFactory or Architect.  The broker then runs the architect server
+     * itself and talks to it through an in-process channel.</p>
+     */
     public static class ArchitectServerAddress {
+        // in-process server names are global to the JVM, so every embedded
+        // architect gets its own number, also across brokers in the same JVM
+        private static final AtomicInteger embeddedServers = new AtomicInteger();
+
         private String hostname;
         private int port;
-
+        private String factory;
+        private String inProcessName;
+        private ChannelConfiguration channel = new ChannelConfiguration();
+
+        /**
+         * Returns the hostname, or for an embedded architect the name of its
+         * in-process server.  The name contains a number, so that two entries
+         * with the same factory run two servers.
+         */
         public String getHostname() {
+            if (factory != null) {
+                return inProcessName;
+            }
             return hostname;
         }
 
@@ -138,8 +652,32 @@ public class BrokerConfiguration {
             this.port = port;
         }
 
+        public String getFactory() {
+            return factory;
+        }
+
+        public void setFactory(String factory) {
+            this.factory = factory;
+            this.inProcessName = factory == null ? null
+                : "inprocess:" + factory + "-" + embeddedServers.incrementAndGet();
+        }
+
+        public ChannelConfiguration getChannel() {
+            return channel;
+        }
+
+        public void setChannel(ChannelConfiguration channel) {
+            this.channel = channel;
+        }
+
         @Override
         public String toString() {
+            if (factory != null) {
+                return "embedded " + factory + " at " + inProcessName;
+            }
+            if (Util.domainSocketPath(hostname) != null) {
+                return hostname;
+            }
             return hostname + ":" + port;
         }
 
@@ -152,4 +690,114 @@ public class BrokerConfiguration {
         }
     }
 
+    /**
+     * Transport settings of the gRPC channels to one architect server, see
+     * {@link ArchitectChannelFactory}.  Values of 0 keep the gRPC defaults.
+     */
+    public static class ChannelConfiguration {
+
+        /**
+         * Which executor runs the callbacks of the calls on a channel.
+         */
+        public enum ExecutorType {
+            /** The cached thread pool that gRPC uses by default. */
+            Default,
+            /**
+             * The Netty event loop itself.  Fastest, but a slow callback blocks all
+             * calls of the channel.
+             */
+            Direct,
+            /** A fixed pool of executorThreads threads per architect server. */
+            Pool
+        }
+
+        private ExecutorType executor = ExecutorType.Default;
+        private int executorThreads = 4;
+        private boolean epoll = true;
+        private long keepAliveTimeMs = 0;
+        private long keepAliveTimeoutMs = 20000;
+        private boolean keepAliveWithoutCalls = false;
+        private int flowControlWindowBytes = 0;
+        private int maxInboundMessageBytes = 0;
+        private int subchannels = 1;
+
+        public ExecutorType getExecutor() {
+            return executor;
+        }
+
+        public void setExecutor(ExecutorType executor) {
+            this.executor = executor;
+        }
+
+        public int getExecutorThreads() {
+            return executorThreads;
+        }
+
+        public void setExecutorThreads(int executorThreads) {
+            this.executorThreads = executorThreads;
+        }
+
+        /**
+         * If true, the native epoll transport is used where it is available (Linux).
+         */
+        public boolean getEpoll() {
+            return epoll;
+        }
+
+        public void setEpoll(boolean epoll) {
+            this.epoll = epoll;
+        }
+
+        public long getKeepAliveTimeMs() {
+            return keepAliveTimeMs;
+        }
+
+        public void setKeepAliveTimeMs(long keepAliveTimeMs) {
+            this.keepAliveTimeMs = keepAliveTimeMs;
+        }
+
+        public long getKeepAliveTimeoutMs() {
+            return keepAliveTimeoutMs;
+        }
+
+        public void setKeepAliveTimeoutMs(long keepAliveTimeoutMs) {
+            this.keepAliveTimeoutMs = keepAliveTimeoutMs;
+        }
+
+        public boolean getKeepAliveWithoutCalls() {
+            return keepAliveWithoutCalls;
+        }
+
+        public void setKeepAliveWithoutCalls(boolean keepAliveWithoutCalls) {
+            this.keepAliveWithoutCalls = keepAliveWithoutCalls;
+        }
+
+        public int getFlowControlWindowBytes() {
+            return flowControlWindowBytes;
+        }
+
+        public void setFlowControlWindowBytes(int flowControlWindowBytes) {
+            this.flowControlWindowBytes = flowControlWindowBytes;
+        }
+
+        public int getMaxInboundMessageBytes() {
+            return maxInboundMessageBytes;
+        }
+
+        public void setMaxInboundMessageBytes(int maxInboundMessageBytes) {
+            this.maxInboundMessageBytes = maxInboundMessageBytes;
+        }
+
+        /**
+         * Number of HTTP/2 connections to the architect server; calls are
+         * distributed over them round-robin.
+         */
+        public int getSubchannels() {
+            return subchannels;
+        }
+
+        public void setSubchannels(int subchannels) {
+            this.subchannels = subchannels;
+        }
+    }
 }
@@ -0,0 +1,97 @@
+package de.saar.minecraft.broker;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ties the flow control of a stream from an architect to the stream to the
+ * Minecraft client that it is forwarded to.  The broker requests the next
+ * message from the architect only when the client stream is ready, so at most
+ * {@link #WINDOW} messages per stream wait in the broker for a slow client.
+ * The architect keeps the rest in its own bounded outbound queue.
+ *
+ * <p>Must be created while the gRPC call of the client is being handled, as
+ * it registers for the ready signal of the client stream.</p>
+ */
+class ClientBackpressure {
+    // messages that may be on their way from the architect at any time
+    static final int WINDOW = 8;
+
+    // null if the client stream cannot tell whether it is ready
+    private final ServerCallStreamObserver<?> toClient;
+    private volatile ClientCallStreamObserver<?> fromArchitect = null;
+    // messages that were forwarded while the client was not ready
+    private final AtomicInteger owed = new AtomicInteger();
+
+    ClientBackpressure(StreamObserver<?> toClient) {
+        if (toClient instanceof ServerCallStreamObserver) {
+            this.toClient = (ServerCallStreamObserver<?>) toClient;
+            this.toClient.setOnReadyHandler(this::clientReady);
+            // a client that disconnects does not need any more messages
+            this.toClient.setOnCancelHandler(() -> {
+                var call = fromArchitect;
+                if (call != null) {
+                    call.cancel("Minecraft client disconnected", null);
+                }
+            });
+        } else {
+            this.toClient = null;
+        }
+    }
+
+    /**
+     * Takes over the flow control of the architect stream; call from
+     * {@link io.grpc.stub.ClientResponseObserver#beforeStart}.
+     */
+    void beforeStart(ClientCallStreamObserver<?> fromArchitect) {
+        this.fromArchitect = fromArchitect;
+        fromArchitect.disableAutoInboundFlowControl();
+    }
+
+    /**
+     * Requests the first messages from the architect.  Call after the stub call
+     * that opened the architect stream has returned.
+     */
+    void start() {
+        var call = fromArchitect;
+        if (call != null) {
+            call.request(WINDOW);
+        }
+    }
+
+    /**
+     * Called after a message from the architect has been handled, and requests
+     * the next one as soon as the client is ready.
+     */
+    void messageHandled() {
+        if (isClientReady()) {
+            request(1);
+            return;
+        }
+        owed.incrementAndGet();
+        // the client may have become ready before owed was raised
+        if (isClientReady()) {
+            clientReady();
+        }
+    }
+
+    private void clientReady() {
+        int count = owed.getAndSet(0);
+        if (count > 0) {
+            request(count);
+        }
+    }
+
+    private boolean isClientReady() {
+        return toClient == null || toClient.isReady();
+    }
+
+    private void request(int count) {
+        var call = fromArchitect;
+        if (call != null) {
+            call.request(count);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.saar.minecraft.broker;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Reloads the broker configuration file when it changes and registers the
+ * architect servers that were added to it and deregisters the ones that were
+ * removed.  All other settings only take effect after a restart.
+ *
+ * <p>Only the difference to the previous version of the file is applied, so
+ * architect servers that were registered through the BrokerAdmin service stay
+ * registered.</p>
+ */
+class ConfigWatcher extends Thread {
+    private static final Logger logger = LogManager.getLogger(ConfigWatcher.class);
+
+    private final Broker broker;
+    private final Path configFile;
+
+    public ConfigWatcher(Broker broker, Path configFile) {
+        super("config-watcher");
+        setDaemon(true);
+        this.broker = broker;
+        this.configFile = configFile.toAbsolutePath();
+    }
+
+    @Override
+    public void run() {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            configFile.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = key.pollEvents().stream()
+                    .anyMatch(event -> configFile.getFileName().equals(event.context()));
+                key.reset();
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not watch configuration file {}", configFile, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reload() {
+        BrokerConfiguration config;
+        try (Reader reader = new FileReader(configFile.toFile())) {
+            config = BrokerConfiguration.loadYaml(reader);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not reload configuration file {}", configFile, e);
+            return;
+        }
+        Set<String> previous = addresses(broker.getConfig());
+        Set<String> current = addresses(config);
+        for (var asa : config.getArchitectServers()) {
+            if (!previous.contains(asa.toString())) {
+                logger.info("Architect server {} added to configuration", asa);
+                broker.connectArchitect(asa)
+                    .exceptionally(error -> {
+                        logger.error("Failed to connect to architect server at {}", asa, error);
+                        return null;
+                    });
+            }
+        }
+        for (var asa : broker.getConfig().getArchitectServers()) {
+            if (!current.contains(asa.toString())) {
+                logger.info("Architect server {} removed from configuration", asa);
+                broker.deregisterArchitect(asa.getHostname(), asa.getPort());
+            }
+        }
+        broker.getConfig().setArchitectServers(config.getArchitectServers());
+    }
+
+    private static Set<String> addresses(BrokerConfiguration config) {
+        Set<String> ret = new HashSet<>();
+        for (var asa : config.getArchitectServers()) {
+            ret.add(asa.toString());
+        }
+        return ret;
+    }
+}
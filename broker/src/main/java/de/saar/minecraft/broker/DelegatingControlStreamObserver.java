@@ -1,15 +1,20 @@
 package de.saar.minecraft.broker;
 
 import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.shared.GameId;
 import de.saar.minecraft.shared.ProtectBlockMessage;
 import de.saar.minecraft.shared.TextMessage;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 
-class DelegatingControlStreamObserver implements StreamObserver<ProtectBlockMessage> {
+class DelegatingControlStreamObserver
+    implements ClientResponseObserver<GameId, ProtectBlockMessage> {
 
     private final StreamObserver<ProtectBlockMessage> toClient;
     private final int gameId;
     private final Broker broker;
+    private final ClientBackpressure backpressure;
 
     public DelegatingControlStreamObserver(int gameId,
                                            StreamObserver<ProtectBlockMessage> toClient,
@@ -17,12 +22,26 @@ class DelegatingControlStreamObserver implements StreamObserver<ProtectBlockMess
         this.toClient = toClient;
         this.gameId = gameId;
         this.broker = broker;
+        this.backpressure = new ClientBackpressure(toClient);
+    }
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<GameId> requestStream) {
+        backpressure.beforeStart(requestStream);
+    }
+
+    /**
+     * Requests the first messages from the Architect, once the call to it has started.
+     */
+    public void start() {
+        backpressure.start();
     }
 
     @Override
     public void onNext(ProtectBlockMessage value) {
         broker.log(gameId, value, GameLogsDirection.PassToClient);
         toClient.onNext(value);
+        backpressure.messageHandled();
     }
 
     @Override
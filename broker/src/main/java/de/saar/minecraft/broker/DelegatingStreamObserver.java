@@ -1,48 +1,25 @@
 package de.saar.minecraft.broker;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonToken;
 import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.shared.GameId;
 import de.saar.minecraft.shared.NewGameState;
 import de.saar.minecraft.shared.TextMessage;
 import de.saar.minecraft.shared.TextMessageOrBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
-import java.io.IOException;
 
 /**
  * A DelegatingStreamObserver acts as a proxy in connections from the Architect to the Client.
- * All messages are logged into the database and forwarded.
+ * All messages are logged into the database and forwarded.  Messages are only
+ * requested from the Architect as fast as the Client takes them.
  */
-class DelegatingStreamObserver implements StreamObserver<TextMessage> {
-    
-    private static final JsonFactory factory = new JsonFactory();
+class DelegatingStreamObserver implements ClientResponseObserver<GameId, TextMessage> {
 
-    /**
-     * Extracts the value of the "message" field from the json string. Returns null if not found.
-     * @throws IOException Passed up from Jackson.
-     */
-    private static String getMessage(String json) {
-        try {
-            var parser = factory.createParser(json);
-            while (!parser.isClosed()) {
-                var jsonToken = parser.nextToken();
-                if (JsonToken.FIELD_NAME.equals(jsonToken)) {
-                    if ("message".equals(parser.getCurrentName())) {
-                        return parser.nextTextValue();
-                    }
-                }
-            }
-        } catch (IOException ignored) {
-            // Not a great solution, but we just return null
-            // and get a Nullpointer exception somewhere
-            // I hope that this can just never happen.
-        }
-        return null;
-    }
-    
     private final StreamObserver<TextMessage> toClient;
     private final int gameId;
     private final Broker broker;
+    private final ClientBackpressure backpressure;
 
     public DelegatingStreamObserver(int gameId,
                                     StreamObserver<TextMessage> toClient,
@@ -50,10 +27,36 @@ class DelegatingStreamObserver implements StreamObserver<TextMessage> {
         this.toClient = toClient;
         this.gameId = gameId;
         this.broker = broker;
+        this.backpressure = new ClientBackpressure(toClient);
     }
 
     @Override
-    public synchronized void onNext(TextMessage value) {
+    public void beforeStart(ClientCallStreamObserver<GameId> requestStream) {
+        backpressure.beforeStart(requestStream);
+    }
+
+    /**
+     * Requests the first messages from the Architect, once the call to it has started.
+     */
+    public void start() {
+        backpressure.start();
+    }
+
+    @Override
+    public void onNext(TextMessage value) {
+        forward(value);
+        backpressure.messageHandled();
+    }
+
+    /**
+     * Sends a message that does not come from the Architect, e.g. from the
+     * questionnaire, to the Client.
+     */
+    public void sendToClient(TextMessage value) {
+        forward(value);
+    }
+
+    private synchronized void forward(TextMessage value) {
         if (value.getNewGameState() == NewGameState.SuccessfullyFinished) {
             broker.startQuestionnaire(gameId, this);
         }
@@ -68,7 +71,9 @@ class DelegatingStreamObserver implements StreamObserver<TextMessage> {
         if (text.startsWith("{")) {
             // assume that a json object is passed along, get the "message" part
             // and only forward that.
-            value = TextMessage.newBuilder(value).setText(getMessage(text)).build();
+            value = TextMessage.newBuilder(value)
+                .setText(GameLogColumns.extractMessage(text))
+                .build();
         }
         toClient.onNext(value);
     }
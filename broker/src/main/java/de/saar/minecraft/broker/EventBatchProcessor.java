@@ -0,0 +1,236 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.shared.EventBatch;
+import de.saar.minecraft.shared.EventBatchResult;
+import de.saar.minecraft.shared.GameEvent;
+import de.saar.minecraft.shared.GameEventAck;
+import de.saar.minecraft.util.GameEvents;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handles one EventBatch from a Minecraft server as a unit.  The log records of
+ * all events are appended to the log writer together, and the events are
+ * forwarded with one HandleEvents call per architect server.
+ *
+ * <p>Events of the same game go to the same architect call in their original
+ * order.  Consecutive status updates of a game within the batch are coalesced,
+ * only the last one is forwarded (the others are acknowledged without error).
+ * A game gets its events either in batches or one at a time; events on the
+ * other path are rejected.  The maximum status rate of the dispatcher applies
+ * to batches too: a status update that comes too early is acknowledged without
+ * being forwarded.</p>
+ *
+ * <p>Batches take a place in the queue of the {@link GameEventDispatcher} of
+ * every game they contain, so the events of a game are only forwarded once the
+ * architect has answered the previous batch with events of that game.  If too
+ * many batches are waiting for a game, its events are rejected.  The places of
+ * a batch are taken all at once under a common lock, so all dispatchers see the
+ * batches in the same order and two batches never wait for each other.  As
+ * for single events, there is no such order if coalescing is disabled.</p>
+ */
+class EventBatchProcessor {
+    // makes taking the places of a batch in the dispatchers atomic
+    private static final Object enqueueLock = new Object();
+
+    /**
+     * The events of one batch for one architect server.  Events are sent with their
+     * index in the original batch as sequence number.
+     */
+    private static class ArchitectBatch {
+        final Broker.ArchitectConnection architect;
+        final EventBatch.Builder events = EventBatch.newBuilder();
+        // position in events of the last status update of a game, if it was the
+        // last event of that game so far
+        final Map<Integer, Integer> trailingStatus = new HashMap<>();
+        final Map<Integer, GameSession> sessions = new LinkedHashMap<>();
+        // games whose dispatcher had no room for this batch, filled in while
+        // holding enqueueLock
+        final Set<Integer> rejected = new HashSet<>();
+        // completes when the architect has answered, which frees the places of
+        // the batch in the dispatchers
+        final CompletableFuture<Void> answered = new CompletableFuture<>();
+
+        ArchitectBatch(Broker.ArchitectConnection architect) {
+            this.architect = architect;
+        }
+    }
+
+    private final Broker broker;
+    private final EventBatch batch;
+    private final GameEventAck[] acks;
+
+    public EventBatchProcessor(Broker broker, EventBatch batch) {
+        this.broker = broker;
+        this.batch = batch;
+        this.acks = new GameEventAck[batch.getEventsCount()];
+    }
+
+    /**
+     * Logs and forwards all events.  The result completes when all architects
+     * have answered.
+     */
+    public CompletableFuture<EventBatchResult> process() {
+        List<GameLogsRecord> records = new ArrayList<>();
+        Map<Broker.ArchitectConnection, ArchitectBatch> byArchitect = new IdentityHashMap<>();
+
+        for (int i = 0; i < batch.getEventsCount(); i++) {
+            GameEvent event = batch.getEvents(i);
+            int gameId = GameEvents.gameId(event);
+            var payload = GameEvents.payload(event);
+            if (payload == null) {
+                ack(i, "Empty game event");
+                continue;
+            }
+            GameSession session = broker.getSession(gameId);
+            if (session == null) {
+                ack(i, "No game with ID " + gameId);
+                continue;
+            }
+            GameLogsRecord rec = broker.eventRecord(session, payload);
+            if (rec != null) {
+                records.add(rec);
+            }
+            if (session.hasQuestionnaire()) {
+                ack(i, "");
+                continue;
+            }
+            if (!session.useEventPath(GameSession.EventPath.Batch)) {
+                ack(i, "Game " + gameId + " gets its events one at a time");
+                continue;
+            }
+
+            ArchitectBatch forward = byArchitect.computeIfAbsent(session.architect,
+                ArchitectBatch::new);
+            GameEvent indexed = event.toBuilder().setSequence(i).build();
+            boolean status = event.getEventCase() == GameEvent.EventCase.STATUS;
+            Integer previous = forward.trailingStatus.get(gameId);
+            if (status && previous != null) {
+                // latest wins, the replaced status update is done
+                ack((int) forward.events.getEvents(previous).getSequence(), "");
+                forward.events.setEvents(previous, indexed);
+                continue;
+            }
+            if (status && !session.dispatcher.takeStatusSlot()) {
+                // over the maximum status rate, a later update will follow
+                ack(i, "");
+                continue;
+            }
+            forward.sessions.put(gameId, session);
+            forward.events.addEvents(indexed);
+            if (status) {
+                forward.trailingStatus.put(gameId, forward.events.getEventsCount() - 1);
+            } else {
+                forward.trailingStatus.remove(gameId);
+            }
+        }
+
+        broker.getLogWriter().appendAll(records);
+
+        Map<ArchitectBatch, CompletableFuture<Void>> turns = new IdentityHashMap<>();
+        synchronized (enqueueLock) {
+            for (ArchitectBatch forward : byArchitect.values()) {
+                turns.put(forward, enqueue(forward));
+            }
+        }
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        turns.forEach((forward, turn) -> calls.add(turn
+            .thenCompose(v -> send(forward))
+            .whenComplete((v, error) -> forward.answered.complete(null))));
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture[0]))
+            .thenApply(v -> {
+                var result = EventBatchResult.newBuilder();
+                for (GameEventAck ack : acks) {
+                    result.addAcks(ack);
+                }
+                return result.build();
+            });
+    }
+
+    /**
+     * Takes a place for the events for one architect server in the dispatchers
+     * of their games, which is held until the architect has answered.
+     * @return completes when it is the turn of all these games
+     */
+    private CompletableFuture<Void> enqueue(ArchitectBatch forward) {
+        List<CompletableFuture<Void>> turns = new ArrayList<>();
+        for (GameSession session : forward.sessions.values()) {
+            var turn = new CompletableFuture<Void>();
+            session.dispatcher.submit(false,
+                () -> {
+                    turn.complete(null);
+                    return forward.answered;
+                },
+                error -> {
+                    if (!turn.isDone()) {
+                        // rejected without being forwarded
+                        forward.rejected.add(session.gameId);
+                        turn.complete(null);
+                    }
+                });
+            turns.add(turn);
+        }
+        return CompletableFuture.allOf(turns.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Sends the events for one architect server and fills in the acks of the
+     * events from its answer.  Never completes exceptionally.
+     */
+    private CompletableFuture<Void> send(ArchitectBatch forward) {
+        var events = EventBatch.newBuilder();
+        for (GameEvent event : forward.events.getEventsList()) {
+            if (forward.rejected.contains(GameEvents.gameId(event))) {
+                ack((int) event.getSequence(), "Too many events waiting for the architect");
+            } else {
+                events.addEvents(event);
+            }
+        }
+        if (events.getEventsCount() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        var call = new FutureStreamObserver<EventBatchResult>();
+        try {
+            broker.architectStub(forward.architect).handleEvents(events.build(), call);
+        } catch (RuntimeException e) {
+            call.onError(e);
+        }
+        return call.future().handle((result, error) -> {
+            if (error != null) {
+                for (GameEvent event : events.getEventsList()) {
+                    ack((int) event.getSequence(), "Architect failed: " + error.getMessage());
+                }
+                return null;
+            }
+            for (GameEventAck ack : result.getAcksList()) {
+                // ignore acks for events that were not in the batch
+                long sequence = ack.getSequence();
+                if (sequence >= 0 && sequence < acks.length) {
+                    ack((int) sequence, ack.getError());
+                }
+            }
+            // events the architect did not answer
+            for (GameEvent event : events.getEventsList()) {
+                if (acks[(int) event.getSequence()] == null) {
+                    ack((int) event.getSequence(), "No answer from architect");
+                }
+            }
+            return null;
+        });
+    }
+
+    private synchronized void ack(int index, String error) {
+        acks[index] = GameEventAck.newBuilder()
+            .setSequence(batch.getEvents(index).getSequence())
+            .setError(error)
+            .build();
+    }
+}
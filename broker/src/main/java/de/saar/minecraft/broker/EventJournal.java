@@ -0,0 +1,327 @@
+package de.saar.minecraft.broker;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * An append-only journal on local disk, consisting of memory-mapped segment files.
+ *
+ * <p>Entries are appended by any number of threads and read back in order by a
+ * single reader thread.  The reader position is persisted by {@link #checkpoint()};
+ * when the journal is opened again, reading continues at the last checkpoint, so
+ * all entries that were appended but not yet checkpointed are read again.
+ * Segments before the checkpoint are deleted.</p>
+ *
+ * <p>Each entry is stored as its length, a CRC32 of its content and the content
+ * itself.  The length is written last, so an entry torn by a crash is either
+ * invisible (length 0) or detected by its checksum.  A new journal always starts
+ * a fresh segment; older segments are only read.</p>
+ */
+public class EventJournal {
+    private static final Logger logger = LogManager.getLogger(EventJournal.class);
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean forceOnAppend;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private boolean wakeUpRequested = false;
+
+    // writer position, guarded by lock
+    private long writeSegment;
+    private int writeOffset;
+    private MappedByteBuffer writeBuffer;
+    // the first segment written by this process, older ones are replayed
+    private final long firstSegment;
+
+    // reader position, guarded by lock
+    private long readSegment;
+    private int readOffset;
+    private ByteBuffer readBuffer;
+
+    /**
+     * Opens the journal in the given directory, creating the directory if needed.
+     * @param segmentSize size of each segment file in bytes
+     * @param forceOnAppend if true, every append is forced to the storage device
+     */
+    public EventJournal(Path directory, int segmentSize, boolean forceOnAppend)
+        throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.forceOnAppend = forceOnAppend;
+        Files.createDirectories(directory);
+
+        long checkpointSegment = 0;
+        int checkpointOffset = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            String[] parts = Files.readString(checkpoint).strip().split(" ");
+            checkpointSegment = Long.parseLong(parts[0]);
+            checkpointOffset = Integer.parseInt(parts[1]);
+        }
+
+        List<Long> segments = listSegments();
+        long lastSegment = segments.isEmpty() ? checkpointSegment
+            : Math.max(checkpointSegment, segments.get(segments.size() - 1));
+        firstSegment = lastSegment + 1;
+        openWriteSegment(firstSegment);
+
+        final long checkpointed = checkpointSegment;
+        readSegment = checkpointSegment;
+        readOffset = checkpointOffset;
+        if (!segments.contains(readSegment)) {
+            // the checkpointed segment is gone, start at the next one that exists
+            readSegment = segments.stream()
+                .filter(s -> s > checkpointed)
+                .findFirst()
+                .orElse(firstSegment);
+            readOffset = 0;
+        }
+        if (readSegment < firstSegment) {
+            logger.info("Journal in {} has unshipped entries from segment {} on, replaying them",
+                directory, readSegment);
+        }
+    }
+
+    /**
+     * Appends an entry to the journal.  When this method returns, the entry
+     * survives a crash of the process.
+     */
+    public void append(byte[] entry) throws IOException {
+        appendAll(List.of(entry));
+    }
+
+    /**
+     * Appends several entries one after the other, with no entry of another
+     * thread between them.  Either all entries are appended or, if one of them
+     * is too large, none.
+     */
+    public void appendAll(List<byte[]> entries) throws IOException {
+        for (byte[] entry : entries) {
+            if (HEADER_SIZE + entry.length > segmentSize) {
+                throw new IOException("Journal entry of " + entry.length
+                    + " bytes does not fit into a segment");
+            }
+        }
+        lock.lock();
+        try {
+            for (byte[] entry : entries) {
+                int needed = HEADER_SIZE + entry.length;
+                CRC32 crc = new CRC32();
+                crc.update(entry);
+                if (writeOffset + needed > writeBuffer.capacity()) {
+                    if (forceOnAppend) {
+                        writeBuffer.force();
+                    }
+                    openWriteSegment(writeSegment + 1);
+                }
+                writeBuffer.putInt(writeOffset + 4, (int) crc.getValue());
+                writeBuffer.put(writeOffset + HEADER_SIZE, entry);
+                // write the length last, it makes the entry visible after a crash
+                writeBuffer.putInt(writeOffset, entry.length);
+                writeOffset += needed;
+            }
+            if (forceOnAppend) {
+                writeBuffer.force();
+            }
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the next entry, waiting up to the given time for one to be appended.
+     * Must only be called by a single reader thread.
+     * @return the entry, or null if the time has elapsed or {@link #wakeUp()} was called
+     */
+    public byte[] poll(long timeout, TimeUnit unit) throws InterruptedException, IOException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (true) {
+                if (wakeUpRequested) {
+                    wakeUpRequested = false;
+                    return null;
+                }
+                byte[] entry = readNext();
+                if (entry != null || nanos <= 0) {
+                    return entry;
+                }
+                nanos = appended.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the reader return from {@link #poll(long, TimeUnit)} immediately.
+     */
+    public void wakeUp() {
+        lock.lock();
+        try {
+            wakeUpRequested = true;
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the last entry returned by the reader was written
+     * before this journal was opened.
+     */
+    public boolean isReplaying() {
+        lock.lock();
+        try {
+            return readSegment < firstSegment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if the reader has read all entries.
+     */
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return readSegment == writeSegment && readOffset >= writeOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Persists the current reader position and deletes all segments before it.
+     * Entries read so far will not be read again after a restart.
+     */
+    public void checkpoint() throws IOException {
+        long segment;
+        int offset;
+        lock.lock();
+        try {
+            segment = readSegment;
+            offset = readOffset;
+        } finally {
+            lock.unlock();
+        }
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.writeString(tmp, segment + " " + offset);
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long s : listSegments()) {
+            if (s < segment) {
+                Files.deleteIfExists(segmentPath(s));
+            }
+        }
+    }
+
+    /**
+     * Forces all appended entries to the storage device.
+     */
+    public void force() {
+        lock.lock();
+        try {
+            writeBuffer.force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the entry at the reader position, moving on to the next segment
+     * at the end of a segment.  Must be called with the lock held.
+     */
+    private byte[] readNext() throws IOException {
+        while (true) {
+            if (readSegment == writeSegment && readOffset >= writeOffset) {
+                return null;
+            }
+            if (readBuffer == null) {
+                readBuffer = readSegment == writeSegment
+                    ? writeBuffer.duplicate()
+                    : mapSegment(readSegment, FileChannel.MapMode.READ_ONLY);
+            }
+            if (readOffset + HEADER_SIZE <= readBuffer.capacity()) {
+                int length = readBuffer.getInt(readOffset);
+                if (length > 0 && readOffset + HEADER_SIZE + length <= readBuffer.capacity()) {
+                    byte[] entry = new byte[length];
+                    readBuffer.get(readOffset + HEADER_SIZE, entry);
+                    CRC32 crc = new CRC32();
+                    crc.update(entry);
+                    if ((int) crc.getValue() == readBuffer.getInt(readOffset + 4)) {
+                        readOffset += HEADER_SIZE + length;
+                        return entry;
+                    }
+                    logger.warn("Skipping torn journal entry at the end of segment {}",
+                        readSegment);
+                }
+            }
+            // end of an old segment, continue with the next one
+            readSegment++;
+            readOffset = 0;
+            readBuffer = null;
+            while (readSegment < writeSegment && !Files.exists(segmentPath(readSegment))) {
+                readSegment++;
+            }
+        }
+    }
+
+    private void openWriteSegment(long segment) throws IOException {
+        writeBuffer = mapSegment(segment, FileChannel.MapMode.READ_WRITE);
+        writeSegment = segment;
+        writeOffset = 0;
+    }
+
+    private MappedByteBuffer mapSegment(long segment, FileChannel.MapMode mode)
+        throws IOException {
+        boolean write = mode == FileChannel.MapMode.READ_WRITE;
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(segment).toFile(),
+            write ? "rw" : "r")) {
+            if (write) {
+                file.setLength(segmentSize);
+            }
+            // the mapping stays valid after the file is closed
+            return file.getChannel().map(mode, 0, file.length());
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, segment,
+            SEGMENT_SUFFIX));
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .map(p -> p.getFileName().toString())
+                .filter(n -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX))
+                .map(n -> Long.parseLong(n.substring(SEGMENT_PREFIX.length(),
+                    n.length() - SEGMENT_SUFFIX.length())))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+}
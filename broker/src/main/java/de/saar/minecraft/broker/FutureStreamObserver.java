@@ -0,0 +1,32 @@
+package de.saar.minecraft.broker;
+
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A StreamObserver for unary gRPC calls on async stubs that completes a
+ * future with the response, so calls can be composed with other asynchronous steps.
+ */
+class FutureStreamObserver<T> implements StreamObserver<T> {
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    private T value;
+
+    public CompletableFuture<T> future() {
+        return future;
+    }
+
+    @Override
+    public void onNext(T value) {
+        this.value = value;
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        future.completeExceptionally(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        future.complete(value);
+    }
+}
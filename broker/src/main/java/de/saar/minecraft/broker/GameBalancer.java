@@ -0,0 +1,152 @@
+package de.saar.minecraft.broker;
+
+import static de.saar.minecraft.broker.db.Tables.GAMES;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Record3;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+/**
+ * Decides which scenario and which architect a new game is played with, so that
+ * all of them are played about equally often.
+ *
+ * <p>The number of games per scenario and per (scenario, architect) pair is read
+ * from the database once when the broker starts and afterwards only counted in
+ * memory, so selecting does not need any database queries.  Architects are
+ * identified by their architect info string, as in the GAMES table.</p>
+ */
+public class GameBalancer {
+    private static final Logger logger = LogManager.getLogger(GameBalancer.class);
+
+    /**
+     * How the next scenario or architect is chosen among the candidates.
+     */
+    public enum Strategy {
+        /** The candidate with the fewest games so far; ties go to the earlier one. */
+        LeastPlayed {
+            @Override
+            String select(List<String> candidates, Counts counts, Map<String, Number> weights) {
+                return minimize(candidates, c -> counts.get(c));
+            }
+        },
+        /** All candidates in turn, ignoring the games before the broker started. */
+        RoundRobin {
+            @Override
+            String select(List<String> candidates, Counts counts, Map<String, Number> weights) {
+                return candidates.get((int) (counts.turns % candidates.size()));
+            }
+        },
+        /**
+         * The candidate whose number of games is furthest below its share according
+         * to its weight.  Candidates without a weight have weight 1.
+         */
+        Weighted {
+            @Override
+            String select(List<String> candidates, Counts counts, Map<String, Number> weights) {
+                return minimize(candidates,
+                    c -> (counts.get(c) + 1) / weights.getOrDefault(c, 1).doubleValue());
+            }
+        };
+
+        abstract String select(List<String> candidates, Counts counts,
+                               Map<String, Number> weights);
+
+        private interface Score {
+            double of(String candidate);
+        }
+
+        private static String minimize(List<String> candidates, Score score) {
+            String best = candidates.get(0);
+            double bestScore = score.of(best);
+            for (String candidate : candidates) {
+                double s = score.of(candidate);
+                if (s < bestScore) {
+                    best = candidate;
+                    bestScore = s;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Number of games per candidate, plus the number of selections made from them.
+     */
+    static class Counts {
+        private final Map<String, Long> games = new HashMap<>();
+        private long turns = 0;
+
+        long get(String candidate) {
+            return games.getOrDefault(candidate, 0L);
+        }
+
+        private void add(String candidate, long count) {
+            games.merge(candidate, count, Long::sum);
+        }
+    }
+
+    private final Strategy strategy;
+    private final Map<String, Number> scenarioWeights;
+    private final Map<String, Number> architectWeights;
+
+    // guarded by this
+    private final Counts scenarioCounts = new Counts();
+    private final Map<String, Counts> architectCounts = new HashMap<>();
+
+    /**
+     * Creates a balancer and loads the number of games played so far.
+     */
+    public GameBalancer(DSLContext jooq, BrokerConfiguration.BalancingConfiguration config) {
+        this.strategy = config.getStrategy();
+        this.scenarioWeights = config.getScenarioWeights();
+        this.architectWeights = config.getArchitectWeights();
+        try {
+            for (Record3<String, String, Integer> row : jooq
+                .select(GAMES.SCENARIO, GAMES.ARCHITECT_INFO, DSL.count())
+                .from(GAMES)
+                .groupBy(GAMES.SCENARIO, GAMES.ARCHITECT_INFO)
+                .fetch()) {
+                scenarioCounts.add(row.value1(), row.value3());
+                if (row.value2() != null) {
+                    architectCounts(row.value1()).add(row.value2(), row.value3());
+                }
+            }
+        } catch (DataAccessException e) {
+            logger.error("Could not load game counts, balancing starts from zero", e);
+        }
+        logger.info("Balancing with strategy {}, games per scenario: {}", strategy,
+            scenarioCounts.games);
+    }
+
+    /**
+     * Selects the scenario for a new game and counts the game.
+     */
+    public synchronized String selectScenario(List<String> scenarios) {
+        return select(scenarios, scenarioCounts, scenarioWeights);
+    }
+
+    /**
+     * Selects the architect for a new game in the given scenario and counts the game.
+     * @param architects the architect infos of all available architects
+     */
+    public synchronized String selectArchitect(String scenario, List<String> architects) {
+        return select(architects, architectCounts(scenario), architectWeights);
+    }
+
+    private String select(List<String> candidates, Counts counts, Map<String, Number> weights) {
+        String selected = strategy.select(candidates, counts, weights);
+        counts.add(selected, 1);
+        counts.turns++;
+        return selected;
+    }
+
+    private Counts architectCounts(String scenario) {
+        return architectCounts.computeIfAbsent(scenario, s -> new Counts());
+    }
+}
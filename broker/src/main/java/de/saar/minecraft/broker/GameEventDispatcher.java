@@ -0,0 +1,211 @@
+package de.saar.minecraft.broker;
+
+import io.grpc.Status;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Forwards the events of one game to its architect, one at a time and in order,
+ * and coalesces status updates (latest wins).
+ *
+ * <p>While an event is being forwarded, newer events wait in a queue.  A status
+ * update that is still waiting is replaced by the next status update if no other
+ * event came in between, so the architect only gets the newest position and block
+ * and text events keep their order relative to the status updates.  Optionally,
+ * status updates are forwarded at most at a maximum rate; events behind a delayed
+ * status update wait for it.</p>
+ *
+ * <p>At most a configured number of events wait per game.  If the architect falls
+ * that far behind, the oldest waiting status update is dropped to make room, as a
+ * newer position follows anyway; if only other events are waiting, the new event
+ * is rejected with RESOURCE_EXHAUSTED.</p>
+ *
+ * <p>If coalescing is disabled, events are forwarded immediately and concurrently,
+ * as if there was no dispatcher.</p>
+ */
+class GameEventDispatcher {
+
+    private static class Entry {
+        final boolean status;
+        final Supplier<CompletionStage<?>> forward;
+        final Consumer<Throwable> done;
+
+        Entry(boolean status, Supplier<CompletionStage<?>> forward, Consumer<Throwable> done) {
+            this.status = status;
+            this.forward = forward;
+            this.done = done;
+        }
+    }
+
+    private final boolean enabled;
+    private final int maxQueued;
+    private final long minStatusIntervalNanos;
+    private final ScheduledExecutorService scheduler;
+
+    // guarded by this
+    private final Deque<Entry> queue = new ArrayDeque<>();
+    private boolean inFlight = false;
+    private boolean scheduled = false;
+    private long lastStatusForward;
+    private long coalesced = 0;
+    private long rejected = 0;
+
+    /**
+     * Creates a dispatcher for one game.
+     * @param scheduler used to delay status updates if a maximum rate is configured
+     */
+    public GameEventDispatcher(BrokerConfiguration.CoalescingConfiguration config,
+                               ScheduledExecutorService scheduler) {
+        this.enabled = config.getEnabled();
+        this.maxQueued = Math.max(1, config.getMaxQueued());
+        this.minStatusIntervalNanos = config.getMaxStatusRate() > 0
+            ? (long) (TimeUnit.SECONDS.toNanos(1) / config.getMaxStatusRate())
+            : 0;
+        this.scheduler = scheduler;
+        this.lastStatusForward = System.nanoTime() - minStatusIntervalNanos;
+    }
+
+    /**
+     * Queues an event for forwarding.
+     * @param status true for status updates, which may be coalesced
+     * @param forward sends the event to the architect; the returned stage completes
+     *     when the architect has handled it
+     * @param done called with null when the event was forwarded or replaced by a newer
+     *     status update, or with the error if forwarding failed
+     */
+    public void submit(boolean status, Supplier<CompletionStage<?>> forward,
+                       Consumer<Throwable> done) {
+        Entry entry = new Entry(status, forward, done);
+        if (!enabled) {
+            forward(entry);
+            return;
+        }
+        Entry replaced = null;
+        boolean full = false;
+        synchronized (this) {
+            if (status && !queue.isEmpty() && queue.peekLast().status) {
+                replaced = queue.pollLast();
+                coalesced++;
+            } else if (queue.size() >= maxQueued) {
+                replaced = removeOldestStatus();
+                if (replaced != null) {
+                    coalesced++;
+                } else {
+                    full = true;
+                    rejected++;
+                }
+            }
+            if (!full) {
+                queue.addLast(entry);
+            }
+        }
+        if (replaced != null) {
+            replaced.done.accept(null);
+        }
+        if (full) {
+            done.accept(Status.RESOURCE_EXHAUSTED
+                .withDescription("Too many events waiting for the architect")
+                .asRuntimeException());
+            return;
+        }
+        dispatch();
+    }
+
+    /**
+     * Takes the next slot for a status update that bypasses the queue, as the
+     * updates in an EventBatch do.
+     * @return false if the maximum status rate does not allow an update yet,
+     *     in which case the update should be dropped
+     */
+    public synchronized boolean takeStatusSlot() {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (now - lastStatusForward < minStatusIntervalNanos) {
+            coalesced++;
+            return false;
+        }
+        lastStatusForward = now;
+        return true;
+    }
+
+    /**
+     * Returns the number of status updates that were replaced by newer ones.
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Returns the number of events that were rejected because too many events
+     * were waiting.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    // guarded by this
+    private Entry removeOldestStatus() {
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext()) {
+            Entry waiting = it.next();
+            if (waiting.status) {
+                it.remove();
+                return waiting;
+            }
+        }
+        return null;
+    }
+
+    private void dispatch() {
+        Entry next;
+        synchronized (this) {
+            if (inFlight || scheduled || queue.isEmpty()) {
+                return;
+            }
+            if (queue.peekFirst().status) {
+                long now = System.nanoTime();
+                long wait = lastStatusForward + minStatusIntervalNanos - now;
+                if (wait > 0) {
+                    scheduled = true;
+                    scheduler.schedule(this::scheduledDispatch, wait, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                lastStatusForward = now;
+            }
+            next = queue.pollFirst();
+            inFlight = true;
+        }
+        forward(next).whenComplete((v, error) -> {
+            synchronized (this) {
+                inFlight = false;
+            }
+            dispatch();
+        });
+    }
+
+    private void scheduledDispatch() {
+        synchronized (this) {
+            scheduled = false;
+        }
+        dispatch();
+    }
+
+    private static CompletionStage<?> forward(Entry entry) {
+        CompletionStage<?> result;
+        try {
+            result = entry.forward.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((v, error) -> entry.done.accept(error));
+    }
+}
@@ -0,0 +1,215 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.shared.GameEvent;
+import de.saar.minecraft.shared.GameEventAck;
+import de.saar.minecraft.util.GameEvents;
+import io.grpc.stub.StreamObserver;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Handles one GameEvents stream from a Minecraft server.  Every event is logged
+ * and forwarded to the architect of its game through the game's
+ * {@link GameEventDispatcher}, on one GameEvents stream per architect server,
+ * which is opened when the first event for it arrives.  An event is acknowledged
+ * to the Minecraft server once its architect has handled it or once it was
+ * replaced by a newer status update.
+ *
+ * <p>Events for unknown games and for games in their questionnaire are
+ * acknowledged by the broker directly.</p>
+ */
+class GameEventRelay implements StreamObserver<GameEvent> {
+    private static final Logger logger = LogManager.getLogger(GameEventRelay.class);
+
+    private final Broker broker;
+    private final StreamObserver<GameEventAck> toClient;
+
+    private final Map<Broker.ArchitectConnection, ArchitectStream> architectStreams =
+        new ConcurrentHashMap<>();
+    // guarded by toClient
+    private boolean clientCompleted = false;
+    private boolean clientFailed = false;
+    private boolean clientClosed = false;
+    private int openArchitectStreams = 0;
+
+    public GameEventRelay(Broker broker, StreamObserver<GameEventAck> toClient) {
+        this.broker = broker;
+        this.toClient = toClient;
+    }
+
+    @Override
+    public void onNext(GameEvent event) {
+        int gameId = GameEvents.gameId(event);
+        var payload = GameEvents.payload(event);
+        if (payload == null) {
+            ack(event.getSequence(), "Empty game event");
+            return;
+        }
+        GameSession session = broker.getSession(gameId);
+        if (session == null) {
+            ack(event.getSequence(), "No game with ID " + gameId);
+            return;
+        }
+        broker.logEvent(session, payload);
+        if (session.hasQuestionnaire()) {
+            ack(event.getSequence(), "");
+            return;
+        }
+        if (!session.useEventPath(GameSession.EventPath.Single)) {
+            ack(event.getSequence(), "Game " + gameId + " gets its events in batches");
+            return;
+        }
+        session.dispatcher.submit(event.getEventCase() == GameEvent.EventCase.STATUS,
+            () -> architectStreams
+                .computeIfAbsent(session.architect, ArchitectStream::new)
+                .send(event),
+            error -> ack(event.getSequence(), error == null ? "" : errorText(error)));
+    }
+
+    private static String errorText(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return "Architect failed: " + error.getMessage();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.warn("game event stream from Minecraft server failed", t);
+        synchronized (toClient) {
+            clientFailed = true;
+        }
+        for (var stream : architectStreams.values()) {
+            stream.toArchitect.onError(t);
+        }
+        architectStreams.clear();
+    }
+
+    @Override
+    public void onCompleted() {
+        synchronized (toClient) {
+            clientCompleted = true;
+        }
+        for (var stream : architectStreams.values()) {
+            stream.toArchitect.onCompleted();
+        }
+        completeIfDone();
+    }
+
+    private void ack(long sequence, String error) {
+        sendToClient(GameEventAck.newBuilder()
+            .setSequence(sequence)
+            .setError(error)
+            .build());
+    }
+
+    private void sendToClient(GameEventAck ack) {
+        synchronized (toClient) {
+            if (!clientFailed && !clientClosed) {
+                toClient.onNext(ack);
+            }
+        }
+    }
+
+    private void completeIfDone() {
+        synchronized (toClient) {
+            if (clientCompleted && !clientFailed && !clientClosed && openArchitectStreams == 0) {
+                clientClosed = true;
+                toClient.onCompleted();
+            }
+        }
+    }
+
+    /**
+     * The GameEvents stream to one architect server.  Its acks complete the
+     * futures returned by {@link #send(GameEvent)}.
+     */
+    private class ArchitectStream implements StreamObserver<GameEventAck> {
+        private final Broker.ArchitectConnection architect;
+        private final StreamObserver<GameEvent> toArchitect;
+        // events sent to the architect and not acknowledged yet, by the sequence
+        // number of the relay, guarded by this
+        private final Map<Long, CompletableFuture<GameEventAck>> pending = new HashMap<>();
+        // clients choose their own sequence numbers, which need not be unique
+        // across the games sharing this stream; guarded by this
+        private long nextSequence = 0;
+        private Throwable failure = null;
+
+        ArchitectStream(Broker.ArchitectConnection architect) {
+            this.architect = architect;
+            synchronized (toClient) {
+                openArchitectStreams++;
+            }
+            this.toArchitect = architect.nonblockingArchitectStub.gameEvents(this);
+        }
+
+        /**
+         * Sends the event under a sequence number of the relay; the future
+         * completes with the ack of the architect and fails if the ack reports
+         * an error or the stream fails.  The caller acks the client with the
+         * sequence number of the original event.
+         */
+        synchronized CompletableFuture<GameEventAck> send(GameEvent event) {
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            long sequence = nextSequence++;
+            var future = new CompletableFuture<GameEventAck>();
+            pending.put(sequence, future);
+            toArchitect.onNext(event.toBuilder().setSequence(sequence).build());
+            return future;
+        }
+
+        @Override
+        public void onNext(GameEventAck value) {
+            CompletableFuture<GameEventAck> future;
+            synchronized (this) {
+                future = pending.remove(value.getSequence());
+            }
+            if (future == null) {
+                return;
+            }
+            if (value.getError().isEmpty()) {
+                future.complete(value);
+            } else {
+                future.completeExceptionally(new IllegalStateException(value.getError()));
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            logger.warn("game event stream to architect {}:{} failed", architect.host,
+                architect.port, t);
+            closed(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            // events that were not acknowledged yet never will be
+            closed(new IllegalStateException(String.format(
+                "architect %s:%d closed the game event stream", architect.host, architect.port)));
+        }
+
+        private void closed(Throwable t) {
+            // the next event for this architect opens a new stream
+            architectStreams.remove(architect, this);
+            Map<Long, CompletableFuture<GameEventAck>> failed;
+            synchronized (this) {
+                failure = t;
+                failed = new HashMap<>(pending);
+                pending.clear();
+            }
+            failed.values().forEach(future -> future.completeExceptionally(t));
+            synchronized (toClient) {
+                openArchitectStreams--;
+            }
+            completeIfDone();
+        }
+    }
+}
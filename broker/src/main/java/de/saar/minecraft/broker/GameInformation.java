@@ -6,6 +6,7 @@ import static java.time.temporal.ChronoUnit.SECONDS;
 
 
 import de.saar.minecraft.broker.db.Tables;
+import de.saar.minecraft.shared.NewGameState;
 import java.time.LocalDateTime;
 import java.util.List;
 import org.apache.logging.log4j.LogManager;
@@ -14,6 +15,8 @@ import org.jooq.DSLContext;
 
 
 public class GameInformation {
+    private static final String SUCCESS_STATE = NewGameState.SuccessfullyFinished.name();
+
     int gameId;
     DSLContext jooq;
 
@@ -54,11 +57,15 @@ public class GameInformation {
             .fetchOne(0, int.class);
     }
 
+    /**
+     * Returns the number of messages that contain the mistake text, as flagged
+     * by {@link GameLogColumns#fill} when the message is logged or backfilled.
+     */
     public int getNumMistakes() {
         return jooq.selectCount()
             .from(GAME_LOGS)
             .where(GAME_LOGS.GAMEID.eq(gameId))
-            .and(GAME_LOGS.MESSAGE.contains("Not there! please remove that block again"))
+            .and(GAME_LOGS.MISTAKE.isTrue())
             .fetchOne(0, int.class);
     }
 
@@ -67,12 +74,12 @@ public class GameInformation {
      * @return True if the game was successfully finished, false if stopped early
      */
     public boolean wasSuccessful() {
-        var selection = jooq.select()
-            .from(GAME_LOGS)
-            .where(GAME_LOGS.GAMEID.eq(gameId))
-            .and(GAME_LOGS.MESSAGE.contains("\"newGameState\": \"SuccessfullyFinished\""))
-            .fetch();
-        return (!selection.isEmpty());
+        return jooq.fetchExists(
+            jooq.selectOne()
+                .from(GAME_LOGS)
+                .where(GAME_LOGS.GAMEID.eq(gameId))
+                .and(GAME_LOGS.NEW_GAME_STATE.eq(SUCCESS_STATE))
+        );
     }
 
     /**
@@ -121,8 +128,9 @@ public class GameInformation {
         return jooq.select(GAME_LOGS.TIMESTAMP)
             .from(GAME_LOGS)
             .where(GAME_LOGS.GAMEID.eq(gameId))
-            .and(GAME_LOGS.MESSAGE.contains("\"newGameState\": \"SuccessfullyFinished\""))
-            .fetchOne(GAME_LOGS.TIMESTAMP);
+            .and(GAME_LOGS.NEW_GAME_STATE.eq(SUCCESS_STATE))
+            .orderBy(GAME_LOGS.ID.asc())
+            .fetchAny(GAME_LOGS.TIMESTAMP);
     }
 
     /**
@@ -0,0 +1,136 @@
+package de.saar.minecraft.broker;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.shared.BlockDestroyedMessage;
+import de.saar.minecraft.shared.BlockPlacedMessage;
+import de.saar.minecraft.shared.GameId;
+import de.saar.minecraft.shared.MinecraftServerError;
+import de.saar.minecraft.shared.ProtectBlockMessage;
+import de.saar.minecraft.shared.StatusMessage;
+import de.saar.minecraft.shared.TextMessage;
+import de.saar.minecraft.shared.WorldFileError;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts logged protobuf messages to and from the representations stored
+ * in the GAME_LOGS table.
+ *
+ * <p>A message is either stored as JSON in the message column or as binary
+ * protobuf in the payload column.  In both cases the message_type column holds
+ * the simple name of the protobuf type, which is used to look up the parser.</p>
+ */
+public final class GameLogCodec {
+
+    /**
+     * How protobuf messages are stored in the GAME_LOGS table.
+     */
+    public enum Format {
+        /** JSON in the message column. */
+        Json,
+        /** Serialized protobuf in the payload column. */
+        Binary
+    }
+
+    // printers and parsers are immutable, so we create them only once
+    private static final JsonFormat.Printer printer =
+        JsonFormat.printer().includingDefaultValueFields();
+    private static final JsonFormat.Parser parser = JsonFormat.parser().ignoringUnknownFields();
+
+    /**
+     * All message types the broker logs, by their message_type tag.
+     */
+    private static final Map<String, Message> prototypes = Stream.<Message>of(
+        StatusMessage.getDefaultInstance(),
+        BlockPlacedMessage.getDefaultInstance(),
+        BlockDestroyedMessage.getDefaultInstance(),
+        ProtectBlockMessage.getDefaultInstance(),
+        TextMessage.getDefaultInstance(),
+        GameId.getDefaultInstance(),
+        MinecraftServerError.getDefaultInstance(),
+        WorldFileError.getDefaultInstance()
+    ).collect(Collectors.toUnmodifiableMap(m -> m.getClass().getSimpleName(),
+        Function.identity()));
+
+    private GameLogCodec() {
+    }
+
+    /**
+     * Returns true if messages of the given message_type can be parsed.
+     */
+    public static boolean isKnownType(String messageType) {
+        return prototypes.containsKey(messageType);
+    }
+
+    /**
+     * Returns the message_type tags of all message types that can be parsed.
+     */
+    public static Set<String> knownTypes() {
+        return prototypes.keySet();
+    }
+
+    public static String toJson(MessageOrBuilder message) throws InvalidProtocolBufferException {
+        return printer.print(message);
+    }
+
+    public static byte[] toBytes(MessageOrBuilder message) {
+        if (message instanceof Message) {
+            return ((Message) message).toByteArray();
+        }
+        return ((Message.Builder) message).build().toByteArray();
+    }
+
+    /**
+     * Parses a JSON message of the given type.
+     * @return the message or null if the type is unknown
+     */
+    public static Message fromJson(String messageType, String json)
+        throws InvalidProtocolBufferException {
+        Message prototype = prototypes.get(messageType);
+        if (prototype == null) {
+            return null;
+        }
+        var builder = prototype.newBuilderForType();
+        parser.merge(json, builder);
+        return builder.build();
+    }
+
+    /**
+     * Parses a binary payload of the given type.
+     * @return the message or null if the type is unknown
+     */
+    public static Message fromBytes(String messageType, byte[] payload)
+        throws InvalidProtocolBufferException {
+        Message prototype = prototypes.get(messageType);
+        if (prototype == null) {
+            return null;
+        }
+        return prototype.getParserForType().parseFrom(payload);
+    }
+
+    /**
+     * Returns the message of a log record as text, rendering binary payloads
+     * as JSON.
+     */
+    public static String messageText(GameLogsRecord rec) {
+        if (rec.getPayload() == null) {
+            return rec.getMessage();
+        }
+        try {
+            Message message = fromBytes(rec.getMessageType(), rec.getPayload());
+            if (message == null) {
+                return "unknown message type " + rec.getMessageType();
+            }
+            return toJson(message);
+        } catch (InvalidProtocolBufferException e) {
+            return "could not decode " + rec.getMessageType() + ": " + e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package de.saar.minecraft.broker;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.shared.BlockDestroyedMessage;
+import de.saar.minecraft.shared.BlockPlacedMessage;
+import de.saar.minecraft.shared.ProtectBlockMessage;
+import de.saar.minecraft.shared.StatusMessage;
+import de.saar.minecraft.shared.TextMessage;
+import java.io.IOException;
+
+/**
+ * Fills the structured columns of the GAME_LOGS table (coordinates, block type,
+ * new game state, text hash and mistake flag) from a logged message.
+ */
+final class GameLogColumns {
+    /**
+     * The text with which the architect tells the player to remove a misplaced block.
+     */
+    public static final String MISTAKE_TEXT = "Not there! please remove that block again";
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    private GameLogColumns() {
+    }
+
+    /**
+     * Returns the hash stored in the text_hash column for a text shown to the player.
+     */
+    public static int textHash(String text) {
+        return text.hashCode();
+    }
+
+    /**
+     * Sets the structured columns of the record from the given message.
+     */
+    public static void fill(GameLogsRecord rec, MessageOrBuilder message) {
+        if (message instanceof StatusMessage) {
+            var m = (StatusMessage) message;
+            setPosition(rec, m.getX(), m.getY(), m.getZ());
+        } else if (message instanceof BlockPlacedMessage) {
+            var m = (BlockPlacedMessage) message;
+            setPosition(rec, m.getX(), m.getY(), m.getZ());
+            rec.setBlockType(m.getType());
+        } else if (message instanceof BlockDestroyedMessage) {
+            var m = (BlockDestroyedMessage) message;
+            setPosition(rec, m.getX(), m.getY(), m.getZ());
+            rec.setBlockType(m.getType());
+        } else if (message instanceof ProtectBlockMessage) {
+            var m = (ProtectBlockMessage) message;
+            setPosition(rec, m.getX(), m.getY(), m.getZ());
+        } else if (message instanceof TextMessage) {
+            var m = (TextMessage) message;
+            String text = displayedText(m.getText());
+            rec.setNewGameState(m.getNewGameState().name());
+            rec.setTextHash(textHash(text));
+            rec.setMistake(text.contains(MISTAKE_TEXT));
+        }
+        rec.setTypedColumns(true);
+    }
+
+    /**
+     * Sets the structured columns of a record written before they existed by
+     * parsing its JSON message.  Records of other types are only marked as done.
+     * @return false if the JSON message could not be parsed
+     */
+    public static boolean fillFromJson(GameLogsRecord rec) {
+        Message message = null;
+        boolean parsed = true;
+        if (rec.getMessage() != null) {
+            try {
+                message = GameLogCodec.fromJson(rec.getMessageType(), rec.getMessage());
+            } catch (InvalidProtocolBufferException e) {
+                parsed = false;
+            }
+        }
+        if (message != null) {
+            fill(rec, message);
+        } else {
+            rec.setTypedColumns(true);
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns the text the player actually sees for a text message.  Architects
+     * may send a json object, of which only the "message" field is displayed.
+     */
+    public static String displayedText(String text) {
+        if (text.startsWith("{")) {
+            String message = extractMessage(text);
+            if (message != null) {
+                return message;
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Extracts the value of the "message" field from the json string. Returns null if not found.
+     */
+    public static String extractMessage(String json) {
+        try {
+            var jsonParser = factory.createParser(json);
+            while (!jsonParser.isClosed()) {
+                var jsonToken = jsonParser.nextToken();
+                if (JsonToken.FIELD_NAME.equals(jsonToken)) {
+                    if ("message".equals(jsonParser.getCurrentName())) {
+                        return jsonParser.nextTextValue();
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+            // Not a great solution, but we just return null
+            // and get a Nullpointer exception somewhere
+            // I hope that this can just never happen.
+        }
+        return null;
+    }
+
+    private static void setPosition(GameLogsRecord rec, int x, int y, int z) {
+        rec.setX(x);
+        rec.setY(y);
+        rec.setZ(z);
+    }
+}
@@ -0,0 +1,567 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.shared.StatusMessage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.InsertValuesStepN;
+import org.jooq.TableRecord;
+import org.jooq.UpdatableRecord;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+/**
+ * Writes game log records and game status updates to the database on a
+ * background thread.
+ *
+ * <p>Without a journal, writes are put into a bounded queue by the gRPC handler
+ * threads and drained by a single writer thread, which stores them as multi-row
+ * inserts and batch updates.  A batch is written as soon as it is full, after the
+ * configured flush interval, or when {@link #flush()} is called.  As there is only
+ * one writer thread, writes happen in the order in which they were appended
+ * (except for game log records spilled with {@link OverflowPolicy#Spill}).  So a
+ * game's row in the GAMES table is always inserted before its status updates,
+ * which is why all writes to that table must go through this writer.  The records
+ * of one {@link #appendAll(List)} take one place in the queue and are written in
+ * the same batch.</p>
+ *
+ * <p>If a journal directory is configured, writes are appended to an
+ * {@link EventJournal} on local disk instead and acknowledged immediately; the
+ * writer thread ships the journal to the database.  While the database is
+ * unavailable, the writer thread retries the same batch and the journal grows, so
+ * database stalls never block the caller.  Entries that were not shipped when the
+ * broker stopped or crashed are shipped after the next start.  Entries are only
+ * checkpointed after their batch has been committed, so a crash between commit
+ * and checkpoint ships the batch again (at-least-once).</p>
+ */
+public class GameLogWriter {
+    private static final Logger logger = LogManager.getLogger(GameLogWriter.class);
+    private static final String STATUS_MESSAGE_TYPE = StatusMessage.class.getSimpleName();
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+
+    /**
+     * A record waiting to be written to the database.
+     */
+    static final class PendingWrite {
+        enum Kind {
+            Insert,
+            /** Updates the changed fields of the row with the record's primary key. */
+            Update
+        }
+
+        final Kind kind;
+        final TableRecord<?> record;
+
+        PendingWrite(Kind kind, TableRecord<?> record) {
+            this.kind = kind;
+            this.record = record;
+        }
+
+        /**
+         * Returns true if both writes can go into the same JDBC batch.
+         */
+        boolean sameBatch(PendingWrite other) {
+            return kind == other.kind && record.getTable().equals(other.record.getTable());
+        }
+    }
+
+    /**
+     * Marker put into the queue to make the writer thread write its current batch
+     * immediately.  It is never written to the database.
+     */
+    private static final List<PendingWrite> FLUSH_MARKER =
+        List.of(new PendingWrite(PendingWrite.Kind.Insert, new GameLogsRecord()));
+
+    /**
+     * What to do if a record is appended while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Block the calling thread until there is space in the queue. */
+        Block,
+        /** Drop status messages, block for all other records. */
+        DropStatus,
+        /**
+         * Insert game log records synchronously on the calling thread, block for
+         * all other writes.
+         */
+        Spill
+    }
+
+    private final DSLContext jooq;
+    // each element holds the writes of one call to append or appendAll
+    private final BlockingQueue<List<PendingWrite>> queue;
+    private final EventJournal journal;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+    // appends hold the read lock from checking running until the record is in the
+    // queue or journal, close() the write lock to stop; so no record is added after
+    // the writer thread has taken the last one
+    private final ReadWriteLock appendLock = new ReentrantReadWriteLock();
+
+    // number of records put into the queue and number of records
+    // taken out of it (written or failed), used for flushing.
+    private final AtomicLong enqueued = new AtomicLong();
+    private long processed = 0;
+    private final Object processedLock = new Object();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+
+    /**
+     * Creates a new writer and starts its background thread.  If the journal
+     * can't be opened, the writer falls back to the in-memory queue.
+     */
+    public GameLogWriter(DSLContext jooq, BrokerConfiguration.LogWriterConfiguration config) {
+        this.jooq = jooq;
+        this.queue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        this.batchSize = config.getBatchSize();
+        this.flushIntervalMs = config.getFlushIntervalMs();
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.journal = openJournal(config.getJournal());
+        writerThread = new Thread(journal == null ? this::run : this::runJournal,
+            "game-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private static EventJournal openJournal(BrokerConfiguration.JournalConfiguration config) {
+        if (config.getDirectory() == null) {
+            return null;
+        }
+        try {
+            EventJournal journal = new EventJournal(Path.of(config.getDirectory()),
+                config.getSegmentSizeBytes(), config.getForceOnAppend());
+            logger.info("Journaling database writes in {}", config.getDirectory());
+            return journal;
+        } catch (IOException e) {
+            logger.error("Could not open journal in {}, writing through the in-memory queue",
+                config.getDirectory(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Appends a record to be inserted.  If the queue is full, the
+     * configured {@link OverflowPolicy} decides what happens.
+     */
+    public void append(GameLogsRecord record) {
+        append(List.of(new PendingWrite(PendingWrite.Kind.Insert, record)));
+    }
+
+    /**
+     * Appends several records to be inserted.  They are appended as a unit, so
+     * no other record comes between them and they are written in one batch.
+     */
+    public void appendAll(List<GameLogsRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<PendingWrite> writes = new ArrayList<>(records.size());
+        for (GameLogsRecord record : records) {
+            writes.add(new PendingWrite(PendingWrite.Kind.Insert, record));
+        }
+        append(writes);
+    }
+
+    /**
+     * Appends a record of any table to be inserted.
+     */
+    public void insert(TableRecord<?> record) {
+        append(List.of(new PendingWrite(PendingWrite.Kind.Insert, record)));
+    }
+
+    /**
+     * Appends an update of the changed fields of a record.  The primary key of
+     * the record must be set and marked as unchanged.
+     */
+    public void update(UpdatableRecord<?> record) {
+        append(List.of(new PendingWrite(PendingWrite.Kind.Update, record)));
+    }
+
+    private void append(List<PendingWrite> writes) {
+        appendLock.readLock().lock();
+        try {
+            if (!running) {
+                // writer thread is gone, write synchronously so nothing is lost.
+                writeBatch(writes);
+                return;
+            }
+            enqueue(writes);
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
+
+    private void enqueue(List<PendingWrite> writes) {
+        if (journal != null) {
+            try {
+                List<byte[]> entries = new ArrayList<>(writes.size());
+                for (PendingWrite write : writes) {
+                    entries.add(JournalCodec.encode(write));
+                }
+                journal.appendAll(entries);
+                return;
+            } catch (IOException e) {
+                logger.error("Could not append to journal, writing directly", e);
+                writeBatch(writes);
+                return;
+            }
+        }
+        if (queue.offer(writes)) {
+            enqueued.addAndGet(writes.size());
+            return;
+        }
+        switch (overflowPolicy) {
+            case DropStatus:
+                List<PendingWrite> kept = writes.stream()
+                    .filter(write -> !isStatus(write))
+                    .collect(Collectors.toList());
+                countDropped(writes.size() - kept.size());
+                if (!kept.isEmpty()) {
+                    put(kept);
+                }
+                break;
+            case Spill:
+                if (writes.stream().allMatch(write -> write.record instanceof GameLogsRecord)) {
+                    spilled.addAndGet(writes.size());
+                    writeBatch(writes);
+                } else {
+                    // writes to other tables may depend on a queued insert, e.g. the
+                    // update of a game's status on the insert of the game
+                    put(writes);
+                }
+                break;
+            case Block:
+            default:
+                put(writes);
+                break;
+        }
+    }
+
+    private static boolean isStatus(PendingWrite write) {
+        return write.record instanceof GameLogsRecord && STATUS_MESSAGE_TYPE.equals(
+            ((GameLogsRecord) write.record).getMessageType());
+    }
+
+    private void countDropped(int count) {
+        if (count == 0) {
+            return;
+        }
+        long before = dropped.getAndAdd(count);
+        // log the 1st, 1001st, ... dropped message
+        if (before % 1000 == 0 || before / 1000 != (before + count - 1) / 1000) {
+            logger.warn("game log queue full, dropped {} status messages so far",
+                before + count);
+        }
+    }
+
+    private void put(List<PendingWrite> writes) {
+        try {
+            queue.put(writes);
+            enqueued.addAndGet(writes.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("interrupted while waiting for the game log queue, writing directly");
+            writeBatch(writes);
+        }
+    }
+
+    /**
+     * Blocks until all records appended before this call have been written.
+     * With a journal, this only makes the writer thread ship its current batch
+     * and returns immediately, as appended records are already durable.
+     */
+    public void flush() {
+        if (journal != null) {
+            journal.wakeUp();
+            return;
+        }
+        long target = enqueued.get();
+        if (!running) {
+            return;
+        }
+        try {
+            queue.put(FLUSH_MARKER);
+            synchronized (processedLock) {
+                while (processed < target && writerThread.isAlive()) {
+                    processedLock.wait(flushIntervalMs);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes all remaining records and stops the writer thread.  Records appended
+     * afterwards are written synchronously.  With a journal, shipping stops as
+     * soon as the database fails; the rest is shipped after the next start.
+     * Calling this method more than once has no further effect.
+     */
+    public void close() {
+        appendLock.writeLock().lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+        } finally {
+            appendLock.writeLock().unlock();
+        }
+        try {
+            if (journal != null) {
+                journal.wakeUp();
+                synchronized (processedLock) {
+                    processedLock.notifyAll();
+                }
+            } else {
+                queue.put(FLUSH_MARKER);
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            journal.force();
+        }
+        logger.info("game log writer stopped ({} status messages dropped, {} records spilled)",
+            dropped.get(), spilled.get());
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                List<PendingWrite> first = queue.take();
+                if (first != FLUSH_MARKER) {
+                    batch.addAll(first);
+                    // collect more records until the batch is full or the interval is over
+                    long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+                    while (batch.size() < batchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        List<PendingWrite> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null || next == FLUSH_MARKER) {
+                            break;
+                        }
+                        batch.addAll(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                logger.warn("game log writer interrupted");
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                markProcessed(batch.size());
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Ships the journal to the database until the writer is closed, then ships
+     * what is left as long as the database accepts it.
+     */
+    private void runJournal() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        boolean replaying = false;
+        try {
+            while (true) {
+                byte[] entry = journal.poll(running ? flushIntervalMs : 0, TimeUnit.MILLISECONDS);
+                if (entry != null) {
+                    replaying |= journal.isReplaying();
+                    try {
+                        batch.add(JournalCodec.decode(entry, jooq));
+                    } catch (IOException | RuntimeException e) {
+                        logger.error("Skipping journal entry that could not be decoded", e);
+                    }
+                    if (batch.size() < batchSize) {
+                        continue;
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    if (!ship(batch)) {
+                        break;
+                    }
+                    batch.clear();
+                    journal.checkpoint();
+                    if (replaying && !journal.isReplaying()) {
+                        logger.info("Finished replaying the journal");
+                        replaying = false;
+                    }
+                } else if (!running && journal.isEmpty()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not read journal, shipping stopped", e);
+        } catch (InterruptedException e) {
+            logger.warn("game log writer interrupted");
+        }
+    }
+
+    /**
+     * Writes a batch from the journal.  While the database is unavailable, the
+     * batch is retried with increasing delays.
+     * @return false if the batch was not written because the writer was closed
+     */
+    private boolean ship(List<PendingWrite> batch) throws InterruptedException {
+        long delay = flushIntervalMs;
+        while (true) {
+            try {
+                writeGroups(batch);
+                return true;
+            } catch (DataAccessException e) {
+                if (isDatabaseAvailable()) {
+                    // the batch itself is bad, not the database
+                    writeOneByOne(batch, e);
+                    return true;
+                }
+                if (!running) {
+                    logger.warn("Database unavailable, {} records stay in the journal",
+                        batch.size());
+                    return false;
+                }
+                logger.warn("Database unavailable, retrying batch of {} records in {} ms",
+                    batch.size(), delay);
+                synchronized (processedLock) {
+                    processedLock.wait(delay);
+                }
+                delay = Math.min(2 * delay, MAX_RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    private boolean isDatabaseAvailable() {
+        try {
+            jooq.selectOne().fetch();
+            return true;
+        } catch (DataAccessException e) {
+            return false;
+        }
+    }
+
+    private void markProcessed(int count) {
+        synchronized (processedLock) {
+            processed += count;
+            processedLock.notifyAll();
+        }
+    }
+
+    /**
+     * Writes the records as one transaction.  If that fails, the records are written
+     * one by one so that a single bad record does not lose the whole batch.
+     */
+    private void writeBatch(List<PendingWrite> batch) {
+        try {
+            writeGroups(batch);
+        } catch (DataAccessException e) {
+            writeOneByOne(batch, e);
+        }
+    }
+
+    private void writeOneByOne(List<PendingWrite> batch, DataAccessException cause) {
+        logger.error("Could not write batch of {} records, retrying one by one",
+            batch.size(), cause);
+        for (PendingWrite write : batch) {
+            try {
+                writeGroup(jooq, List.of(write));
+            } catch (DataAccessException e) {
+                logger.error("Could not write record {}", write.record, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the records in one transaction, with one statement for every run
+     * of consecutive writes of the same kind to the same table.
+     */
+    private void writeGroups(List<PendingWrite> batch) {
+        jooq.transaction(configuration -> {
+            DSLContext tx = DSL.using(configuration);
+            int start = 0;
+            for (int i = 1; i <= batch.size(); i++) {
+                if (i == batch.size() || !batch.get(i).sameBatch(batch.get(start))) {
+                    writeGroup(tx, batch.subList(start, i));
+                    start = i;
+                }
+            }
+        });
+    }
+
+    private static void writeGroup(DSLContext ctx, List<PendingWrite> group) {
+        if (group.get(0).kind == PendingWrite.Kind.Insert) {
+            // one multi-row INSERT for every run of records that set the same columns
+            int start = 0;
+            for (int i = 1; i <= group.size(); i++) {
+                if (i == group.size() || !changedFields(group.get(i).record)
+                    .equals(changedFields(group.get(start).record))) {
+                    insertRows(ctx, group.subList(start, i));
+                    start = i;
+                }
+            }
+        } else {
+            ctx.batchUpdate(group.stream()
+                .map(w -> (UpdatableRecord<?>) w.record)
+                .collect(Collectors.toList())).execute();
+        }
+    }
+
+    private static void insertRows(DSLContext ctx, List<PendingWrite> rows) {
+        List<Field<?>> fields = changedFields(rows.get(0).record);
+        if (fields.isEmpty()) {
+            // nothing to put into a VALUES clause, let jOOQ insert the defaults
+            ctx.batchInsert(rows.stream()
+                .map(w -> w.record)
+                .collect(Collectors.toList())).execute();
+            return;
+        }
+        InsertValuesStepN<?> insert = ctx.insertInto(rows.get(0).record.getTable(), fields);
+        for (PendingWrite row : rows) {
+            List<Object> values = new ArrayList<>(fields.size());
+            for (Field<?> field : fields) {
+                values.add(row.record.get(field));
+            }
+            insert = insert.values(values);
+        }
+        insert.execute();
+    }
+
+    private static List<Field<?>> changedFields(TableRecord<?> record) {
+        List<Field<?>> ret = new ArrayList<>();
+        for (Field<?> field : record.fields()) {
+            if (record.changed(field)) {
+                ret.add(field);
+            }
+        }
+        return ret;
+    }
+}
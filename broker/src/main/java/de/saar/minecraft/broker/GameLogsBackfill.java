@@ -0,0 +1,146 @@
+package de.saar.minecraft.broker;
+
+import static de.saar.minecraft.broker.db.Tables.GAME_LOGS;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Result;
+import org.jooq.exception.DataAccessException;
+import org.jooq.impl.DSL;
+
+/**
+ * Fills the structured columns of GAME_LOGS rows that were written before
+ * these columns existed and optionally converts JSON messages to binary payloads.
+ *
+ * <p>The job works in batches of rows that still have typed_columns = false
+ * (or no payload, respectively), so it can be interrupted at any time (e.g. by
+ * a broker restart) and simply continues with the remaining rows the next time
+ * it runs.</p>
+ */
+class GameLogsBackfill extends Thread {
+    private static final Logger logger = LogManager.getLogger(GameLogsBackfill.class);
+    private static final long PAUSE_BETWEEN_BATCHES_MS = 100;
+
+    private final DSLContext jooq;
+    private final int batchSize;
+    private final boolean convertToBinary;
+
+    /**
+     * Creates the backfill job; call {@link #start()} to run it.
+     * @param convertToBinary whether JSON messages should also be converted to binary payloads
+     */
+    public GameLogsBackfill(DSLContext jooq, int batchSize, boolean convertToBinary) {
+        super("game-logs-backfill");
+        setDaemon(true);
+        this.jooq = jooq;
+        this.batchSize = batchSize;
+        this.convertToBinary = convertToBinary;
+    }
+
+    @Override
+    public void run() {
+        if (fillTypedColumns() && convertToBinary) {
+            convertToBinary();
+        }
+    }
+
+    /**
+     * Fills the structured columns of all rows that don't have them yet.
+     * @return true if the job ran to completion
+     */
+    private boolean fillTypedColumns() {
+        long total = 0;
+        int unparseable = 0;
+        try {
+            while (true) {
+                Result<GameLogsRecord> batch = jooq.selectFrom(GAME_LOGS)
+                    .where(GAME_LOGS.TYPED_COLUMNS.isFalse())
+                    .orderBy(GAME_LOGS.ID.asc())
+                    .limit(batchSize)
+                    .fetch();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (GameLogsRecord rec : batch) {
+                    if (!GameLogColumns.fillFromJson(rec)) {
+                        unparseable++;
+                    }
+                }
+                jooq.batchUpdate(batch).execute();
+                total += batch.size();
+                if (total == batch.size()) {
+                    logger.info("Backfilling structured columns of old game logs");
+                }
+                // leave the database to the games for a moment
+                Thread.sleep(PAUSE_BETWEEN_BATCHES_MS);
+            }
+        } catch (DataAccessException e) {
+            logger.error("Backfill of game logs failed after {} rows, will resume on next start",
+                total, e);
+            return false;
+        } catch (InterruptedException e) {
+            logger.info("Backfill of game logs interrupted after {} rows", total);
+            return false;
+        }
+        if (total > 0) {
+            logger.info("Backfilled {} game log rows ({} could not be parsed)", total, unparseable);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the JSON message of all rows with a known message type by a binary payload.
+     */
+    private void convertToBinary() {
+        long total = 0;
+        // rows that can't be parsed keep their JSON, so we skip them by id
+        Condition afterLastBatch = DSL.noCondition();
+        try {
+            while (true) {
+                Result<GameLogsRecord> batch = jooq.selectFrom(GAME_LOGS)
+                    .where(GAME_LOGS.PAYLOAD.isNull())
+                    .and(GAME_LOGS.MESSAGE_TYPE.in(GameLogCodec.knownTypes()))
+                    .and(afterLastBatch)
+                    .orderBy(GAME_LOGS.ID.asc())
+                    .limit(batchSize)
+                    .fetch();
+                if (batch.isEmpty()) {
+                    break;
+                }
+                List<GameLogsRecord> converted = new ArrayList<>();
+                afterLastBatch = GAME_LOGS.ID.gt(batch.get(batch.size() - 1).getId());
+                for (GameLogsRecord rec : batch) {
+                    try {
+                        Message message = GameLogCodec.fromJson(rec.getMessageType(),
+                            rec.getMessage());
+                        rec.setPayload(GameLogCodec.toBytes(message));
+                        rec.setMessage(null);
+                        converted.add(rec);
+                    } catch (InvalidProtocolBufferException e) {
+                        logger.warn("Could not convert game log row {} to binary", rec.getId());
+                    }
+                }
+                jooq.batchUpdate(converted).execute();
+                total += converted.size();
+                Thread.sleep(PAUSE_BETWEEN_BATCHES_MS);
+            }
+        } catch (DataAccessException e) {
+            logger.error("Conversion of game logs failed after {} rows, will resume on next start",
+                total, e);
+            return;
+        } catch (InterruptedException e) {
+            logger.info("Conversion of game logs interrupted after {} rows", total);
+            return;
+        }
+        if (total > 0) {
+            logger.info("Converted {} game log rows to binary", total);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.broker.db.GameStatus;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Everything the broker needs to know about a running game.  Sessions are kept
+ * in memory from startGame until endGame, so the gRPC handlers can look up a game
+ * with a single map access and never need the database for it.
+ *
+ * <p>The fields that change during a game are volatile, as they are read and
+ * written by different gRPC threads.</p>
+ */
+class GameSession {
+    /**
+     * How the Minecraft server sends the events of a game: one at a time through
+     * the {@link GameEventDispatcher}, or in EventBatches.
+     */
+    enum EventPath {
+        Single,
+        Batch
+    }
+
+    public final int gameId;
+    public final String scenario;
+    public final Broker.ArchitectConnection architect;
+    public final GameEventDispatcher dispatcher;
+    public final StatusLogFilter statusLogFilter;
+
+    private volatile GameStatus status;
+    private volatile Questionnaire questionnaire;
+    private volatile DelegatingStreamObserver messageObserver;
+    private volatile DelegatingControlStreamObserver controlObserver;
+    private final AtomicReference<EventPath> eventPath = new AtomicReference<>();
+
+    public GameSession(int gameId, String scenario, Broker.ArchitectConnection architect,
+                       GameEventDispatcher dispatcher, StatusLogFilter statusLogFilter) {
+        this.gameId = gameId;
+        this.scenario = scenario;
+        this.architect = architect;
+        this.dispatcher = dispatcher;
+        this.statusLogFilter = statusLogFilter;
+    }
+
+    public GameStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(GameStatus status) {
+        this.status = status;
+    }
+
+    /**
+     * Returns the questionnaire of this game, or null if the game is still being played.
+     */
+    public Questionnaire getQuestionnaire() {
+        return questionnaire;
+    }
+
+    public void setQuestionnaire(Questionnaire questionnaire) {
+        this.questionnaire = questionnaire;
+    }
+
+    public boolean hasQuestionnaire() {
+        return questionnaire != null;
+    }
+
+    /**
+     * Fixes the path on which the events of this game arrive.  The first event
+     * decides; events on the other path are rejected afterwards, as their order
+     * relative to the first path would be undefined.
+     * @return false if the game already gets its events on the other path
+     */
+    public boolean useEventPath(EventPath path) {
+        return eventPath.compareAndSet(null, path) || eventPath.get() == path;
+    }
+
+    public DelegatingStreamObserver getMessageObserver() {
+        return messageObserver;
+    }
+
+    public void setMessageObserver(DelegatingStreamObserver messageObserver) {
+        this.messageObserver = messageObserver;
+    }
+
+    public DelegatingControlStreamObserver getControlObserver() {
+        return controlObserver;
+    }
+
+    public void setControlObserver(DelegatingControlStreamObserver controlObserver) {
+        this.controlObserver = controlObserver;
+    }
+}
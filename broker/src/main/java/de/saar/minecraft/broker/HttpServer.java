@@ -11,6 +11,7 @@ import com.google.gson.JsonParser;
 import com.sun.net.httpserver.BasicAuthenticator;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import de.saar.minecraft.architect.GameLoad;
 import de.saar.minecraft.broker.db.Tables;
 import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
 import de.saar.minecraft.broker.db.tables.records.GamesRecord;
@@ -23,7 +24,10 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import org.apache.commons.text.StringEscapeUtils;
@@ -126,8 +130,9 @@ public class HttpServer {
         private String createOverviewResponse() {
             Map<String, Object> bindings = new TreeMap<>();
             bindings.put("config", broker.getConfig());
+            bindings.put("architects", architectOverview());
             try {
-                Result<GamesRecord> latestGames = broker.getJooq().selectFrom(Tables.GAMES)
+                Result<GamesRecord> latestGames = broker.getReadJooq().selectFrom(Tables.GAMES)
                     .orderBy(Tables.GAMES.ID.desc())
                     .limit(20)
                     .fetch();
@@ -147,26 +152,79 @@ public class HttpServer {
             }
         }
 
+        /**
+         * Returns one map per architect server with its games and the last load
+         * it reported.
+         */
+        private List<Map<String, Object>> architectOverview() {
+            List<Map<String, Object>> ret = new ArrayList<>();
+            for (var connection : broker.getArchitectConnections()) {
+                Map<String, Object> row = new HashMap<>();
+                row.put("address", connection.host + ":" + connection.port);
+                row.put("info", connection.architectInfo.getInfo());
+                row.put("runningGames", connection.runningGames.get());
+                row.put("outstandingRpcs", connection.calls.getOutstanding());
+                row.put("timeouts", connection.calls.getTimeouts());
+                double[] callLatency = connection.calls.getLatencyPercentilesMs();
+                row.put("callLatency", String.format("%.1f / %.1f / %.1f",
+                    callLatency[0], callLatency[1], callLatency[2]));
+                row.put("saturated", connection.saturated);
+                var load = connection.load;
+                row.put("reachable", load != null);
+                if (load != null) {
+                    row.put("runningArchitects", load.getRunningArchitects());
+                    row.put("queuedWork", load.getQueuedWork());
+                    row.put("latency", String.format("%.1f / %.1f / %.1f",
+                        load.getLatencyP50Ms(), load.getLatencyP95Ms(), load.getLatencyP99Ms()));
+                    row.put("heap", String.format("%d / %d MB",
+                        load.getHeapUsedBytes() >> 20, load.getHeapMaxBytes() >> 20));
+                    load.getGamesList().stream()
+                        .max(Comparator.comparingInt(GameLoad::getQueuedCalls))
+                        .ifPresent(game -> row.put("fullestMailbox", String.format(
+                            "game %d: %d queued, p99 %.1f ms", game.getGameId(),
+                            game.getQueuedCalls(), game.getLatencyP99Ms())));
+                    load.getGamesList().stream()
+                        .max(Comparator.comparingInt(GameLoad::getOutboundQueued))
+                        .ifPresent(game -> row.put("fullestOutbound", String.format(
+                            "game %d: %d queued, %d dropped", game.getGameId(),
+                            game.getOutboundQueued(), game.getOutboundDropped())));
+                    if (load.hasWarmPool()) {
+                        var pool = load.getWarmPool();
+                        row.put("warmPool", String.format(
+                            "%d of %d games, %d ready, refill p99 %.0f ms", pool.getHits(),
+                            pool.getHits() + pool.getMisses(), pool.getReady(),
+                            pool.getRefillP99Ms()));
+                    }
+                }
+                ret.add(row);
+            }
+            return ret;
+        }
+
         private String createGameResponse(HttpExchange t) {
             String response = checkHttpQuery(t, "id");
             if (response == null) {
                 Map<String,String> params = queryToMap(t.getRequestURI().getQuery());
                 int gameid = Integer.parseInt(params.get("id"));
-                GamesRecord game = broker.getJooq()
+                GamesRecord game = broker.getReadJooq()
                     .selectFrom(Tables.GAMES)
                     .where(Tables.GAMES.ID.equal(gameid))
                     .fetchOne();
 
-                Result<GameLogsRecord> gameLog = broker.getJooq()
+                Result<GameLogsRecord> gameLog = broker.getReadJooq()
                     .selectFrom(Tables.GAME_LOGS)
                     .where(Tables.GAME_LOGS.GAMEID.equal(gameid))
                     .orderBy(Tables.GAME_LOGS.ID.asc())
                     .fetch();
 
-                // escape Textmessages for html
+                // render binary messages as JSON and escape Textmessages for html
                 for (GameLogsRecord entry: gameLog) {
+                    if (entry.getPayload() != null) {
+                        entry.setMessage(GameLogCodec.messageText(entry));
+                    }
                     if (entry.getMessageType().equals(TextMessage.class.getSimpleName())) {
-                        JsonObject object = JsonParser.parseString(entry.getMessage()).getAsJsonObject();
+                        JsonObject object = JsonParser.parseString(entry.getMessage())
+                            .getAsJsonObject();
                         if (! object.has("text")) {
                             continue;
                         }
@@ -197,12 +255,12 @@ public class HttpServer {
             if (response == null) {
                 Map<String, String> params = queryToMap(t.getRequestURI().getQuery());
                 int gameid = Integer.parseInt(params.get("id"));
-                GamesRecord game = broker.getJooq()
+                GamesRecord game = broker.getReadJooq()
                     .selectFrom(Tables.GAMES)
                     .where(Tables.GAMES.ID.equal(gameid))
                     .fetchOne();
 
-                Result<QuestionnairesRecord> questionnaire = broker.getJooq()
+                Result<QuestionnairesRecord> questionnaire = broker.getReadJooq()
                     .selectFrom(Tables.QUESTIONNAIRES)
                     .where(Tables.QUESTIONNAIRES.GAMEID.equal(gameid))
                     .orderBy(Tables.QUESTIONNAIRES.ID.asc())
@@ -234,12 +292,12 @@ public class HttpServer {
                 Map<String, String> params = queryToMap(t.getRequestURI().getQuery());
                 int gameId = Integer.parseInt(params.get("id"));
 
-                GamesRecord game = broker.getJooq()
+                GamesRecord game = broker.getReadJooq()
                     .selectFrom(Tables.GAMES)
                     .where(Tables.GAMES.ID.equal(gameId))
                     .fetchOne();
 
-                GameInformation info = new GameInformation(gameId, broker.getJooq());
+                GameInformation info = new GameInformation(gameId, broker.getReadJooq());
 
                 Map<String, Object> bindings = new TreeMap<>();
                 bindings.put("config", broker.getConfig());
@@ -260,7 +318,7 @@ public class HttpServer {
         private String createAllGamesResponse(HttpExchange t) {
             Map<String, Object> bindings = new TreeMap<>();
             try {
-                Result<GamesRecord> allGames = broker.getJooq().selectFrom(Tables.GAMES)
+                Result<GamesRecord> allGames = broker.getReadJooq().selectFrom(Tables.GAMES)
                     .orderBy(Tables.GAMES.ID.desc())
                     .fetch();
                 bindings.put("games", allGames);
@@ -0,0 +1,63 @@
+package de.saar.minecraft.broker;
+
+import static de.saar.minecraft.broker.db.Tables.ID_SEQUENCES;
+
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+
+/**
+ * Hands out ids for a table from blocks reserved in the ID_SEQUENCES table
+ * (hi/lo allocation).  Only one query per block is needed, and ids are known
+ * before the row is inserted, so the row can be written in a single insert.
+ *
+ * <p>A block is reserved by incrementing next_value in a transaction that
+ * locks the sequence row, so brokers sharing a database never get the same
+ * ids.  Ids that were reserved but not used before a restart are skipped.
+ * All brokers writing to a table must use this allocator for it.</p>
+ */
+class IdAllocator {
+    private final DSLContext jooq;
+    private final String sequence;
+    private final int blockSize;
+
+    // the next id to hand out and the end of the current block (exclusive)
+    private int next = 0;
+    private int limit = 0;
+
+    public IdAllocator(DSLContext jooq, String sequence, int blockSize) {
+        this.jooq = jooq;
+        this.sequence = sequence;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Returns the next id.  This only accesses the database when the current
+     * block is used up.
+     */
+    public synchronized int next() {
+        if (next >= limit) {
+            next = reserveBlock();
+            limit = next + blockSize;
+        }
+        return next++;
+    }
+
+    /**
+     * Reserves the next block and returns its first id.
+     */
+    private int reserveBlock() {
+        return jooq.transactionResult(configuration -> {
+            DSLContext tx = DSL.using(configuration);
+            int first = tx.select(ID_SEQUENCES.NEXT_VALUE)
+                .from(ID_SEQUENCES)
+                .where(ID_SEQUENCES.NAME.eq(sequence))
+                .forUpdate()
+                .fetchOne(ID_SEQUENCES.NEXT_VALUE);
+            tx.update(ID_SEQUENCES)
+                .set(ID_SEQUENCES.NEXT_VALUE, first + blockSize)
+                .where(ID_SEQUENCES.NAME.eq(sequence))
+                .execute();
+            return first;
+        });
+    }
+}
@@ -0,0 +1,172 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.broker.GameLogWriter.PendingWrite;
+import de.saar.minecraft.broker.db.Tables;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Table;
+import org.jooq.TableRecord;
+import org.jooq.UniqueKey;
+
+/**
+ * Serializes pending database writes for the {@link EventJournal}.
+ *
+ * <p>An entry consists of the kind of write, the table and all changed fields of
+ * the record (plus the primary key for updates), each with its field index, its
+ * changed flag and its value.</p>
+ */
+final class JournalCodec {
+    private static final List<Table<? extends TableRecord<?>>> tables = List.of(
+        Tables.GAME_LOGS,
+        Tables.GAMES,
+        Tables.QUESTIONNAIRES
+    );
+
+    private static final byte NULL = 0;
+    private static final byte INTEGER = 1;
+    private static final byte LONG = 2;
+    private static final byte STRING = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte BYTES = 5;
+    private static final byte TIMESTAMP = 6;
+    private static final byte ENUM = 7;
+    private static final byte OTHER = 8;
+
+    private JournalCodec() {
+    }
+
+    public static byte[] encode(PendingWrite write) throws IOException {
+        TableRecord<?> rec = write.record;
+        int tableIndex = tables.indexOf(rec.getTable());
+        if (tableIndex < 0) {
+            throw new IOException("Table " + rec.getTable() + " can't be journaled");
+        }
+        UniqueKey<?> key = rec.getTable().getPrimaryKey();
+        List<? extends Field<?>> keyFields = write.kind == PendingWrite.Kind.Update && key != null
+            ? key.getFields() : List.of();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(write.kind.ordinal());
+        out.writeByte(tableIndex);
+        Field<?>[] fields = rec.fields();
+        int count = 0;
+        for (Field<?> field : fields) {
+            if (rec.changed(field) || keyFields.contains(field)) {
+                count++;
+            }
+        }
+        out.writeShort(count);
+        for (int i = 0; i < fields.length; i++) {
+            if (rec.changed(fields[i]) || keyFields.contains(fields[i])) {
+                out.writeShort(i);
+                out.writeBoolean(rec.changed(fields[i]));
+                writeValue(out, rec.get(fields[i]));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static PendingWrite decode(byte[] entry, DSLContext jooq) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+        PendingWrite.Kind kind = PendingWrite.Kind.values()[in.readByte()];
+        TableRecord<?> rec = jooq.newRecord(tables.get(in.readByte()));
+        int count = in.readShort();
+        for (int i = 0; i < count; i++) {
+            Field<?> field = rec.field(in.readShort());
+            boolean changed = in.readBoolean();
+            setValue(rec, field, readValue(in, field));
+            rec.changed(field, changed);
+        }
+        return new PendingWrite(kind, rec);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof LocalDateTime) {
+            LocalDateTime time = (LocalDateTime) value;
+            out.writeByte(TIMESTAMP);
+            out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(time.getNano());
+        } else if (value instanceof Enum) {
+            out.writeByte(ENUM);
+            writeBytes(out, ((Enum<?>) value).name().getBytes(StandardCharsets.UTF_8));
+        } else {
+            // e.g. unsigned numbers, converted back by the field's data type
+            out.writeByte(OTHER);
+            writeBytes(out, value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readValue(DataInputStream in, Field<?> field) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTES:
+                return readBytes(in);
+            case TIMESTAMP:
+                return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+            case ENUM:
+                return Enum.valueOf((Class) field.getType(),
+                    new String(readBytes(in), StandardCharsets.UTF_8));
+            case OTHER:
+                return field.getDataType().convert(new String(readBytes(in),
+                    StandardCharsets.UTF_8));
+            default:
+                throw new IOException("Unknown value type " + type + " in journal entry");
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] value = new byte[in.readInt()];
+        in.readFully(value);
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void setValue(Record rec, Field<T> field, Object value) {
+        rec.set(field, (T) value);
+    }
+}
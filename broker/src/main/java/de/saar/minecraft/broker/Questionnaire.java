@@ -86,7 +86,7 @@ class Questionnaire {
 
         currQuestion += 1;
         if (currQuestion == questions.size()) {
-            stream.onNext(TextMessage.newBuilder()
+            stream.sendToClient(TextMessage.newBuilder()
                 .setGameId(gameId)
                 .setText("Thank you for your time! you can hang around or disconnect now.")
                 .setNewGameState(NewGameState.QuestionnaireFinished)
@@ -121,7 +121,7 @@ class Questionnaire {
     }
 
     private synchronized void sendText(String text) {
-        stream.onNext(TextMessage.newBuilder()
+        stream.sendToClient(TextMessage.newBuilder()
             .setGameId(gameId)
             .setText(text)
             .build());
@@ -28,7 +28,7 @@ public class Statistics {
 
     public Statistics(Broker broker) {
         this.broker = broker;
-        jooq = broker.getJooq();
+        jooq = broker.getReadJooq();
     }
 
 
@@ -65,7 +65,7 @@ public class Statistics {
                             "",
                             false));
                     }
-                    currentInstruction = logEntry.getMessage();
+                    currentInstruction = GameLogCodec.messageText(logEntry);
                     instructionTime = logEntry.getTimestamp();
                 }
             } else if (logEntry.getDirection().equals(GameLogsDirection.FromClient)) {
@@ -75,7 +75,7 @@ public class Statistics {
                     instructions.add(new Instruction(instructionTime,
                         logEntry.getTimestamp(),
                         currentInstruction,
-                        logEntry.getMessage(),
+                        GameLogCodec.messageText(logEntry),
                         true));
                     currentInstruction = "";
                     instructionTime = logEntry.getTimestamp();
@@ -0,0 +1,54 @@
+package de.saar.minecraft.broker;
+
+import de.saar.minecraft.shared.StatusMessage;
+
+/**
+ * Decides which status updates of a game are written to GAME_LOGS.
+ */
+class StatusLogFilter {
+
+    /**
+     * Which status updates are logged.
+     */
+    public enum Mode {
+        /** Every status update. */
+        All,
+        /**
+         * Status updates in which the block position of the player changed, plus
+         * one keyframe per keyframe interval so the viewing direction is logged too.
+         */
+        KeyframesAndChanges
+    }
+
+    private final Mode mode;
+    private final long keyframeIntervalNanos;
+
+    // guarded by this
+    private StatusMessage lastLogged = null;
+    private long lastLoggedTime;
+
+    public StatusLogFilter(Mode mode, long keyframeIntervalMs) {
+        this.mode = mode;
+        this.keyframeIntervalNanos = keyframeIntervalMs * 1_000_000;
+    }
+
+    /**
+     * Returns true if the status update should be logged.
+     */
+    public synchronized boolean shouldLog(StatusMessage status) {
+        if (mode == Mode.All) {
+            return true;
+        }
+        long now = System.nanoTime();
+        boolean log = lastLogged == null
+            || now - lastLoggedTime >= keyframeIntervalNanos
+            || status.getX() != lastLogged.getX()
+            || status.getY() != lastLogged.getY()
+            || status.getZ() != lastLogged.getZ();
+        if (log) {
+            lastLogged = status;
+            lastLoggedTime = now;
+        }
+        return log;
+    }
+}
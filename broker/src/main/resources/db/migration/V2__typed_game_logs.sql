@@ -0,0 +1,15 @@
+-- Structured columns extracted from the logged messages, so that the
+-- statistics don't have to search the JSON in the message column.
+ALTER TABLE GAME_LOGS ADD COLUMN x int(11);
+ALTER TABLE GAME_LOGS ADD COLUMN y int(11);
+ALTER TABLE GAME_LOGS ADD COLUMN z int(11);
+ALTER TABLE GAME_LOGS ADD COLUMN block_type int(11);
+ALTER TABLE GAME_LOGS ADD COLUMN new_game_state varchar(50);
+ALTER TABLE GAME_LOGS ADD COLUMN text_hash int(11);
+-- false for rows written before this migration until they are backfilled
+ALTER TABLE GAME_LOGS ADD COLUMN typed_columns boolean DEFAULT FALSE;
+
+CREATE INDEX game_logs_gameid_type ON GAME_LOGS (gameid, message_type, id);
+CREATE INDEX game_logs_gameid_state ON GAME_LOGS (gameid, new_game_state, id);
+CREATE INDEX game_logs_gameid_text ON GAME_LOGS (gameid, text_hash, id);
+CREATE INDEX game_logs_typed ON GAME_LOGS (typed_columns, id);
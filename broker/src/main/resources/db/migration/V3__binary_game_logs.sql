@@ -0,0 +1,4 @@
+-- Serialized protobuf message for game logs written in binary format.
+-- For these rows, the message column is empty and the JSON is rendered
+-- from the payload when needed; message_type names the protobuf type.
+ALTER TABLE GAME_LOGS ADD COLUMN payload mediumblob;
@@ -0,0 +1,10 @@
+-- Blocks of ids handed out to the brokers (hi/lo), so that a broker can
+-- assign game ids without inserting the row first.  next_value is the
+-- first id that has not been handed out yet.
+CREATE TABLE if not exists ID_SEQUENCES (
+  name varchar(50) NOT NULL PRIMARY KEY,
+  next_value int(11) NOT NULL
+);
+
+INSERT INTO ID_SEQUENCES (name, next_value)
+  SELECT 'games', COALESCE(MAX(id), 0) + 1 FROM GAMES;
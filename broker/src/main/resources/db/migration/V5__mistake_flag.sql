@@ -0,0 +1,13 @@
+-- Whether the player was told to remove a misplaced block, so that the
+-- mistakes of a game can be counted from the index.  Rows that are not
+-- backfilled yet get the flag from the backfill; rows that already have
+-- their structured columns get it here (379873680 is the text hash of the
+-- mistake text for binary rows).
+ALTER TABLE GAME_LOGS ADD COLUMN mistake boolean DEFAULT FALSE;
+
+UPDATE GAME_LOGS SET mistake = TRUE
+  WHERE typed_columns = TRUE AND message_type = 'TextMessage'
+    AND (message LIKE '%Not there! please remove that block again%'
+         OR (message IS NULL AND text_hash = 379873680));
+
+CREATE INDEX game_logs_gameid_mistake ON GAME_LOGS (gameid, mistake, id);
@@ -0,0 +1,209 @@
+package de.saar.minecraft.broker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.saar.minecraft.broker.GameLogWriter.PendingWrite;
+import de.saar.minecraft.broker.db.GameLogsDirection;
+import de.saar.minecraft.broker.db.GameStatus;
+import de.saar.minecraft.broker.db.Tables;
+import de.saar.minecraft.broker.db.tables.records.GameLogsRecord;
+import de.saar.minecraft.broker.db.tables.records.GamesRecord;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the journal of the {@link GameLogWriter}.  A crash is simulated by opening
+ * a second journal on the same directory without closing the first one.
+ */
+public class EventJournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+
+    private Path directory;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("journal");
+    }
+
+    private EventJournal open() throws IOException {
+        return new EventJournal(directory, SEGMENT_SIZE, false);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String poll(EventJournal journal) throws Exception {
+        byte[] entry = journal.poll(0, TimeUnit.MILLISECONDS);
+        return entry == null ? null : new String(entry, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testReplaysEntriesAfterCheckpoint() throws Exception {
+        var journal = open();
+        journal.appendAll(List.of(bytes("a"), bytes("b"), bytes("c")));
+        assertEquals("a", poll(journal));
+        journal.checkpoint();
+        assertEquals("b", poll(journal));
+
+        // crash: b was read but not checkpointed, so it is shipped again
+        var restarted = open();
+        assertEquals("b", poll(restarted));
+        assertTrue(restarted.isReplaying());
+        assertEquals("c", poll(restarted));
+        assertNull(poll(restarted));
+        assertTrue(restarted.isEmpty());
+
+        restarted.append(bytes("d"));
+        assertEquals("d", poll(restarted));
+        assertFalse(restarted.isReplaying());
+    }
+
+    @Test
+    public void testReplaysAcrossSegments() throws Exception {
+        var journal = open();
+        byte[] large = new byte[SEGMENT_SIZE / 3];
+        for (int i = 0; i < 10; i++) {
+            large[0] = (byte) i;
+            journal.append(large.clone());
+        }
+        assertEquals(0, journal.poll(0, TimeUnit.MILLISECONDS)[0]);
+        journal.checkpoint();
+
+        var restarted = open();
+        for (int i = 1; i < 10; i++) {
+            byte[] entry = restarted.poll(0, TimeUnit.MILLISECONDS);
+            assertEquals(i, entry[0]);
+            assertEquals(large.length, entry.length);
+        }
+        assertNull(restarted.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCheckpointDeletesShippedSegments() throws Exception {
+        var journal = open();
+        byte[] large = new byte[SEGMENT_SIZE / 3];
+        for (int i = 0; i < 10; i++) {
+            journal.append(large);
+        }
+        while (journal.poll(0, TimeUnit.MILLISECONDS) != null) {
+            // ship everything
+        }
+        journal.checkpoint();
+        assertEquals(1, countSegments());
+
+        // nothing is replayed
+        assertNull(open().poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSkipsTornEntry() throws Exception {
+        var journal = open();
+        journal.append(bytes("a"));
+        journal.append(bytes("b"));
+        journal.force();
+
+        // the crash happened while b was written: its content does not match
+        // its checksum
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(p -> p.toString().endsWith(".journal")).findFirst().get();
+        }
+        try (var file = new RandomAccessFile(segment.toFile(), "rw")) {
+            int offsetOfB = 8 + 1;
+            file.seek(offsetOfB + 8);
+            file.write('x');
+        }
+
+        var restarted = open();
+        assertEquals("a", poll(restarted));
+        assertNull(poll(restarted));
+    }
+
+    @Test
+    public void testCodecRestoresInsert() throws Exception {
+        DSLContext jooq = DSL.using(SQLDialect.H2);
+        GameLogsRecord rec = jooq.newRecord(Tables.GAME_LOGS);
+        rec.setGameid(42);
+        rec.setDirection(GameLogsDirection.PassToClient);
+        rec.setMessageType("TextMessage");
+        rec.setMessage("{\"text\": \"Great!\"}");
+        rec.setPayload(new byte[] {1, 2, 3});
+        rec.setTimestamp(LocalDateTime.of(2021, 6, 1, 12, 30, 15, 123_000_000));
+
+        PendingWrite decoded = JournalCodec.decode(
+            JournalCodec.encode(new PendingWrite(PendingWrite.Kind.Insert, rec)), jooq);
+        assertEquals(PendingWrite.Kind.Insert, decoded.kind);
+        GameLogsRecord copy = (GameLogsRecord) decoded.record;
+        assertEquals(42, copy.getGameid());
+        assertEquals(GameLogsDirection.PassToClient, copy.getDirection());
+        assertEquals("TextMessage", copy.getMessageType());
+        assertEquals(rec.getMessage(), copy.getMessage());
+        assertArrayEquals(rec.getPayload(), copy.getPayload());
+        assertEquals(rec.getTimestamp(), copy.getTimestamp());
+        // the id is assigned by the database
+        assertFalse(copy.changed(Tables.GAME_LOGS.ID));
+    }
+
+    @Test
+    public void testCodecRestoresUpdate() throws Exception {
+        DSLContext jooq = DSL.using(SQLDialect.H2);
+        GamesRecord rec = new GamesRecord();
+        rec.setId(7);
+        rec.changed(Tables.GAMES.ID, false);
+        rec.setStatus(GameStatus.Finished);
+
+        PendingWrite decoded = JournalCodec.decode(
+            JournalCodec.encode(new PendingWrite(PendingWrite.Kind.Update, rec)), jooq);
+        assertEquals(PendingWrite.Kind.Update, decoded.kind);
+        GamesRecord copy = (GamesRecord) decoded.record;
+        // the key is restored, but only the status is updated
+        assertEquals(7, copy.getId());
+        assertFalse(copy.changed(Tables.GAMES.ID));
+        assertEquals(GameStatus.Finished, copy.getStatus());
+        assertTrue(copy.changed(Tables.GAMES.STATUS));
+        assertFalse(copy.changed(Tables.GAMES.SCENARIO));
+    }
+
+    @Test
+    public void testReplaysJournaledWrites() throws Exception {
+        DSLContext jooq = DSL.using(SQLDialect.H2);
+        var journal = open();
+        for (int i = 1; i <= 3; i++) {
+            GamesRecord rec = new GamesRecord();
+            rec.setId(i);
+            rec.changed(Tables.GAMES.ID, false);
+            rec.setStatus(GameStatus.Running);
+            journal.append(JournalCodec.encode(new PendingWrite(PendingWrite.Kind.Update, rec)));
+        }
+
+        var restarted = open();
+        for (int i = 1; i <= 3; i++) {
+            var write = JournalCodec.decode(restarted.poll(0, TimeUnit.MILLISECONDS), jooq);
+            assertEquals(i, ((GamesRecord) write.record).getId());
+        }
+        assertNull(restarted.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    private long countSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.toString().endsWith(".journal")).count();
+        }
+    }
+}
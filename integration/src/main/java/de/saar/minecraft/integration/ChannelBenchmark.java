@@ -0,0 +1,149 @@
+package de.saar.minecraft.integration;
+
+import de.saar.minecraft.architect.ArchitectServer;
+import de.saar.minecraft.architect.DummyArchitect;
+import de.saar.minecraft.broker.Broker;
+import de.saar.minecraft.broker.BrokerConfiguration;
+import de.saar.minecraft.broker.BrokerGrpc;
+import de.saar.minecraft.shared.GameData;
+import de.saar.minecraft.shared.GameId;
+import de.saar.minecraft.shared.None;
+import de.saar.minecraft.shared.StatusMessage;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many status updates per second the broker forwards to a
+ * DummyArchitect with different settings for the channel to the architect
+ * server.  Broker, architect server and the simulated Minecraft server run in
+ * this JVM and talk over TCP on localhost.
+ *
+ * <p>Run with {@code ./gradlew :integration:benchmark}.  Optional arguments
+ * are the number of games, the number of status updates in flight and the
+ * measuring time per setting in seconds.</p>
+ */
+public class ChannelBenchmark {
+    private static int nextPort = 21000;
+
+    /**
+     * Runs the benchmark and prints one line per channel setting.
+     */
+    public static void main(String[] args) throws Exception {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int inFlight = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        // the channel section of the architect server in broker-config.yaml
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("NIO", "{epoll: false}");
+        settings.put("epoll", "{}");
+        settings.put("epoll, direct executor", "{executor: Direct}");
+        settings.put("epoll, pool of 4 threads", "{executor: Pool, executorThreads: 4}");
+        settings.put("epoll, 4 subchannels", "{subchannels: 4}");
+        settings.put("epoll, 4 subchannels, 4 MB window",
+            "{subchannels: 4, flowControlWindowBytes: 4194304}");
+
+        System.out.printf("%d games, %d status updates in flight, %d s per setting%n",
+            games, inFlight, seconds);
+        for (var setting : settings.entrySet()) {
+            double rate = run(setting.getValue(), games, inFlight, seconds);
+            System.out.printf("%-40s %10.0f status updates/s%n", setting.getKey(), rate);
+        }
+        System.exit(0);
+    }
+
+    private static double run(String channel, int games, int inFlight, int seconds)
+        throws IOException, InterruptedException {
+        int architectPort = nextPort++;
+        int brokerPort = nextPort++;
+        // never answers status updates with a text message
+        var architectServer = new ArchitectServer(architectPort,
+            () -> new DummyArchitect(0, false, Integer.MAX_VALUE));
+        architectServer.start();
+
+        // forward every status update, but only log the first one of each game
+        BrokerConfiguration config = BrokerConfiguration.loadYaml(new StringReader(
+            "port: " + brokerPort + "\n"
+            + "scenarios: [house]\n"
+            + "architectServers:\n"
+            + "  - {hostname: localhost, port: " + architectPort
+            + ", channel: " + channel + "}\n"
+            + "coalescing:\n"
+            + "  enabled: false\n"
+            + "  statusLogging: KeyframesAndChanges\n"
+            + "  keyframeIntervalMs: 1000000000\n"));
+        Broker broker = new Broker(config);
+        broker.start();
+
+        ManagedChannel toBroker = ManagedChannelBuilder.forAddress("localhost", brokerPort)
+            .usePlaintext()
+            .build();
+        var blockingStub = BrokerGrpc.newBlockingStub(toBroker);
+        var stub = BrokerGrpc.newStub(toBroker);
+        List<Integer> gameIds = new ArrayList<>();
+        for (int i = 0; i < games; i++) {
+            gameIds.add(blockingStub.startGame(GameData.newBuilder()
+                .setClientAddress("localhost")
+                .setPlayerName("benchmark" + i)
+                .build()).getGameId());
+        }
+
+        var permits = new Semaphore(inFlight);
+        var completed = new AtomicLong();
+        var failed = new AtomicLong();
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+        long countedAtWarmupEnd = -1;
+        for (long i = 0; System.nanoTime() < end; i++) {
+            if (countedAtWarmupEnd < 0 && System.nanoTime() >= warmupEnd) {
+                countedAtWarmupEnd = completed.get();
+            }
+            permits.acquire();
+            var status = StatusMessage.newBuilder()
+                .setGameId(gameIds.get((int) (i % games)))
+                .setX(10).setY(64).setZ(10)
+                .setXDirection(i % 100 / 100.0)
+                .build();
+            stub.handleStatusInformation(status, new StreamObserver<None>() {
+                @Override
+                public void onNext(None value) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    failed.incrementAndGet();
+                    permits.release();
+                }
+
+                @Override
+                public void onCompleted() {
+                    completed.incrementAndGet();
+                    permits.release();
+                }
+            });
+        }
+        double rate = (completed.get() - Math.max(0, countedAtWarmupEnd)) / (double) seconds;
+        permits.acquire(inFlight);
+        if (failed.get() > 0) {
+            System.out.printf("  (%d status updates failed)%n", failed.get());
+        }
+
+        for (int id : gameIds) {
+            blockingStub.endGame(GameId.newBuilder().setId(id).build());
+        }
+        toBroker.shutdown();
+        broker.stop();
+        architectServer.stop();
+        return rate;
+    }
+}
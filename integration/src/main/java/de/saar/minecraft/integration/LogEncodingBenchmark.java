@@ -0,0 +1,88 @@
+package de.saar.minecraft.integration;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import de.saar.minecraft.broker.GameLogCodec;
+import de.saar.minecraft.shared.BlockPlacedMessage;
+import de.saar.minecraft.shared.NewGameState;
+import de.saar.minecraft.shared.StatusMessage;
+import de.saar.minecraft.shared.TextMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Compares the storage formats for game log messages: the bytes stored per message
+ * and the time needed to encode it in Broker.log.  No database is involved.
+ *
+ * <p>Run with {@code ./gradlew :integration:logEncodingBenchmark}.  An optional
+ * argument gives the number of iterations per message type.</p>
+ */
+public class LogEncodingBenchmark {
+
+    private interface Encoder {
+        int encode(MessageOrBuilder message) throws InvalidProtocolBufferException;
+    }
+
+    private static final List<MessageOrBuilder> messages = List.of(
+        StatusMessage.newBuilder()
+            .setGameId(4711)
+            .setX(103).setY(66).setZ(-12)
+            .setXDirection(0.4).setYDirection(-0.1).setZDirection(-0.7)
+            .build(),
+        BlockPlacedMessage.newBuilder()
+            .setGameId(4711)
+            .setX(103).setY(67).setZ(-11)
+            .setType(42)
+            .build(),
+        TextMessage.newBuilder()
+            .setGameId(4711)
+            .setText("{\"message\": \"Great! now put a block on top of the blue one\"}")
+            .setNewGameState(NewGameState.NotChanged)
+            .build()
+    );
+
+    /**
+     * Runs the benchmark and prints one line per format and message type.
+     */
+    public static void main(String[] args) throws InvalidProtocolBufferException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        // what Broker.log used to do: build a new printer for every message
+        Encoder jsonFreshPrinter = m -> JsonFormat.printer()
+            .includingDefaultValueFields()
+            .print(m)
+            .getBytes(StandardCharsets.UTF_8)
+            .length;
+        Encoder jsonCachedPrinter = m -> GameLogCodec.toJson(m)
+            .getBytes(StandardCharsets.UTF_8)
+            .length;
+        Encoder binary = m -> GameLogCodec.toBytes(m).length;
+
+        System.out.printf("%-24s %-20s %10s %10s%n", "format", "message", "bytes", "ns/op");
+        for (MessageOrBuilder message : messages) {
+            run("json (new printer)", jsonFreshPrinter, message, iterations);
+            run("json (cached printer)", jsonCachedPrinter, message, iterations);
+            run("binary", binary, message, iterations);
+        }
+    }
+
+    private static void run(String name, Encoder encoder, MessageOrBuilder message,
+                            int iterations) throws InvalidProtocolBufferException {
+        // warm up the JIT before measuring
+        long sink = 0;
+        for (int i = 0; i < iterations / 10; i++) {
+            sink += encoder.encode(message);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += encoder.encode(message);
+        }
+        long nsPerOp = (System.nanoTime() - start) / iterations;
+        int bytes = encoder.encode(message);
+        System.out.printf("%-24s %-20s %10d %10d%s%n", name,
+            message.getClass().getSimpleName(), bytes, nsPerOp,
+            // never true, but keeps the JIT from removing the loop
+            sink == 42 ? " " : "");
+    }
+}
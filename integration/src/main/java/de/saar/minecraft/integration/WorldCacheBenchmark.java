@@ -0,0 +1,112 @@
+package de.saar.minecraft.integration;
+
+import de.saar.minecraft.architect.ScenarioWorld;
+import de.saar.minecraft.architect.ScenarioWorldCache;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the time to load the world of a scenario and the heap it takes
+ * per game when every game parses its own copy and when the games share
+ * the copy in a {@link ScenarioWorldCache}.
+ *
+ * <p>Run with {@code ./gradlew :integration:worldCacheBenchmark}.  Optional
+ * arguments are the scenario and the number of games.  If the scenario is not
+ * among the world resources, a generated world of 100,000 blocks is used.</p>
+ */
+public class WorldCacheBenchmark {
+    /**
+     * Runs the benchmark and prints one line per variant.
+     */
+    public static void main(String[] args) throws IOException {
+        String scenario = args.length > 0 ? args[0] : "house";
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        String csv = readResource(scenario);
+        if (csv == null) {
+            System.out.printf("no world resource for %s, using a generated world%n", scenario);
+            csv = generate(100, 10, 100);
+        }
+        String text = csv;
+        ScenarioWorld world = ScenarioWorld.parse(scenario, reader(text));
+        System.out.printf("%s: %d blocks, %d KB of block arrays, %d games%n", scenario,
+            world.size(), world.getSizeBytes() >> 10, games);
+
+        // warm up the parser
+        for (int i = 0; i < 5; i++) {
+            ScenarioWorld.parse(scenario, reader(text));
+        }
+
+        List<ScenarioWorld> worlds = new ArrayList<>();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            worlds.add(ScenarioWorld.parse(scenario, reader(text)));
+        }
+        print("own copy per game", start, heapBefore, games);
+        worlds.clear();
+
+        var cache = new ScenarioWorldCache(name -> {
+            try {
+                return ScenarioWorld.parse(name, reader(text));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        heapBefore = usedHeap();
+        start = System.nanoTime();
+        for (int i = 0; i < games; i++) {
+            worlds.add(cache.acquire(scenario));
+        }
+        print("ScenarioWorldCache", start, heapBefore, games);
+        for (int i = 0; i < games; i++) {
+            cache.release(scenario);
+        }
+    }
+
+    private static void print(String variant, long start, long heapBefore, int games) {
+        double ms = (System.nanoTime() - start) / 1e6 / games;
+        long bytes = (usedHeap() - heapBefore) / games;
+        System.out.printf("%-20s %8.3f ms load time/game %10d KB heap/game%n",
+            variant, ms, bytes >> 10);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static BufferedReader reader(String text) {
+        return new BufferedReader(new StringReader(text));
+    }
+
+    private static String readResource(String scenario) throws IOException {
+        String path = String.format("/de/saar/minecraft/worlds/%s.csv", scenario);
+        try (InputStream in = WorldCacheBenchmark.class.getResourceAsStream(path)) {
+            return in == null ? null : new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String generate(int sizeX, int sizeY, int sizeZ) {
+        String[] types = {"STONE", "DIRT", "GRASS_BLOCK", "OAK_PLANKS", "GLASS"};
+        StringBuilder ret = new StringBuilder();
+        for (int x = 0; x < sizeX; x++) {
+            for (int y = 0; y < sizeY; y++) {
+                for (int z = 0; z < sizeZ; z++) {
+                    ret.append(x).append(',').append(60 + y).append(',').append(z).append(',')
+                        .append(types[(x + y + z) % types.length]).append('\n');
+                }
+            }
+        }
+        return ret.toString();
+    }
+}
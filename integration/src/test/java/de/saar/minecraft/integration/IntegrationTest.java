@@ -9,11 +9,14 @@ import de.saar.minecraft.shared.None;
 import de.saar.minecraft.shared.TextMessage;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -186,4 +189,84 @@ public class IntegrationTest {
         boolean errorReceived = latch.await(2000, TimeUnit.MILLISECONDS);
         assert errorReceived;
     }
+
+    @Test
+    public void testDomainSocket() throws IOException, InterruptedException {
+        // epoll domain sockets are only available on Linux
+        Assumptions.assumeTrue(System.getProperty("os.name").startsWith("Linux"));
+        Path socket = Files.createTempDirectory("architect").resolve("architect.sock");
+        var socketServer = new ArchitectServer("unix://" + socket,
+            () -> new DummyArchitect(0, true, 1));
+        socketServer.start();
+        try {
+            playGame(BROKER_PORT + 1, 2000,
+                new BrokerConfiguration.ArchitectServerAddress("unix://" + socket, 0));
+        } finally {
+            socketServer.stop();
+        }
+    }
+
+    @Test
+    public void testEmbeddedArchitect() throws IOException, InterruptedException {
+        // DummyArchitect() waits one second before it answers
+        playGame(BROKER_PORT + 2, 3000, embedded(DummyArchitect.class));
+    }
+
+    @Test
+    public void testEmbeddedArchitectsWithSameFactory() throws IOException, InterruptedException {
+        var first = embedded(DummyArchitect.class);
+        var second = embedded(DummyArchitect.class);
+        // both entries get their own in-process server
+        assert !first.getHostname().equals(second.getHostname());
+        playGame(BROKER_PORT + 3, 3000, first, second);
+    }
+
+    private static BrokerConfiguration.ArchitectServerAddress embedded(Class<?> factory) {
+        var address = new BrokerConfiguration.ArchitectServerAddress();
+        address.setFactory(factory.getName());
+        return address;
+    }
+
+    /**
+     * Starts a broker on the given port with the given architect servers and
+     * plays a game through it: the status update of the client has to reach the
+     * architect and its answer has to come back within the timeout.
+     */
+    private static void playGame(int brokerPort, long answerTimeoutMs,
+                                 BrokerConfiguration.ArchitectServerAddress... addresses)
+        throws IOException, InterruptedException {
+        BrokerConfiguration config = new BrokerConfiguration();
+        config.setPort(brokerPort);
+        config.setScenarios(List.of("house"));
+        config.setArchitectServers(List.of(addresses));
+        var testBroker = new Broker(config);
+        testBroker.start();
+        var testClient = new TestClient("localhost", brokerPort);
+
+        try {
+            CountDownLatch latch = new CountDownLatch(1);
+            int gameId = testClient.registerGame("test", new StreamObserver<>() {
+                @Override
+                public void onNext(TextMessage value) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            });
+            assert gameId > 0;
+
+            testClient.sendStatusMessage(gameId, 1, 2, 3, 0.4, 0.0, -0.7);
+            assert latch.await(answerTimeoutMs, TimeUnit.MILLISECONDS);
+            testClient.finishGame(gameId);
+        } finally {
+            testClient.shutdown();
+            testBroker.stop();
+        }
+    }
 }
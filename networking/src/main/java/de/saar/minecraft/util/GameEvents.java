@@ -0,0 +1,42 @@
+package de.saar.minecraft.util;
+
+import com.google.protobuf.Message;
+import de.saar.minecraft.shared.GameEvent;
+
+/**
+ * Helpers for the GameEvent messages of the GameEvents streams.
+ */
+public class GameEvents {
+
+    /**
+     * Returns the message inside the event, or null if no event is set.
+     */
+    public static Message payload(GameEvent event) {
+        switch (event.getEventCase()) {
+            case STATUS:
+                return event.getStatus();
+            case BLOCKPLACED:
+                return event.getBlockPlaced();
+            case BLOCKDESTROYED:
+                return event.getBlockDestroyed();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the id of the game the event belongs to, or -1 if no event is set.
+     */
+    public static int gameId(GameEvent event) {
+        switch (event.getEventCase()) {
+            case STATUS:
+                return event.getStatus().getGameId();
+            case BLOCKPLACED:
+                return event.getBlockPlaced().getGameId();
+            case BLOCKDESTROYED:
+                return event.getBlockDestroyed().getGameId();
+            default:
+                return -1;
+        }
+    }
+}
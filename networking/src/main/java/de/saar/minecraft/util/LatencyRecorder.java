@@ -0,0 +1,48 @@
+package de.saar.minecraft.util;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the durations of the most recent calls and computes
+ * percentiles over them.
+ */
+public class LatencyRecorder {
+    private final long[] samples;
+    // guarded by this
+    private int next = 0;
+    private int count = 0;
+
+    public LatencyRecorder(int capacity) {
+        samples = new long[capacity];
+    }
+
+    /**
+     * Records the duration of a call that started at the given System.nanoTime().
+     */
+    public synchronized void record(long startNanos) {
+        samples[next] = System.nanoTime() - startNanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Returns the given percentiles (between 0 and 1) of the recorded durations
+     * in milliseconds, or zeros if nothing was recorded yet.
+     */
+    public double[] percentilesMs(double... percentiles) {
+        long[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        double[] ret = new double[percentiles.length];
+        if (sorted.length == 0) {
+            return ret;
+        }
+        for (int i = 0; i < percentiles.length; i++) {
+            int index = (int) Math.ceil(percentiles[i] * sorted.length) - 1;
+            ret[i] = sorted[Math.max(0, index)] / 1e6;
+        }
+        return ret;
+    }
+}
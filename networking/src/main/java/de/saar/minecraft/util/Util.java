@@ -5,6 +5,31 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 
 public class Util {
+    private static final String UNIX_SCHEME = "unix://";
+    private static final String IN_PROCESS_SCHEME = "inprocess:";
+
+    /**
+     * Returns the path of a Unix domain socket address like
+     * unix:///run/architect.sock, or null if the address is not of this form.
+     */
+    public static String domainSocketPath(String address) {
+        if (address == null || !address.startsWith(UNIX_SCHEME)) {
+            return null;
+        }
+        return address.substring(UNIX_SCHEME.length());
+    }
+
+    /**
+     * Returns the name of an in-process server address like inprocess:name,
+     * or null if the address is not of this form.
+     */
+    public static String inProcessName(String address) {
+        if (address == null || !address.startsWith(IN_PROCESS_SCHEME)) {
+            return null;
+        }
+        return address.substring(IN_PROCESS_SCHEME.length());
+    }
+
     /**
      * Reads the entire Reader into a string and returns it.
      */